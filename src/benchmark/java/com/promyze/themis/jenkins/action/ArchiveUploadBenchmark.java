@@ -0,0 +1,224 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.HttpClientUtils;
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import com.promyze.themis.jenkins.UploadExecutor;
+import com.promyze.themis.jenkins.test.MockThemis;
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the pipeline that sends report files to Themis: archiving the files of each report type from the
+ * workspace, streaming the archive in a multipart request, and sending it to a local stand-in of Themis that reads the
+ * whole request.
+ * <p>
+ * Run with {@code mvn -P benchmark verify -DskipTests}, optionally passing JMH options, e.g.,
+ * {@code -Dbenchmark.args="-p typeCount=3"}.
+ * The archive settings ({@code pipeBufferSize}, {@code compactReports}, {@code compression} and
+ * {@code archiveThreads}) are fixed to their default value, so that a run takes minutes rather than days; compare their
+ * values with {@code -p}, on the benchmark they apply to, e.g.,
+ * {@code -Dbenchmark.args="pipedUpload -p pipeBufferSize=1,64,1024"}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArchiveUploadBenchmark {
+
+    private static final String API_KEY = "apiKey";
+    private static final String SOURCE_KEY = "sourceKey";
+    private static final String TYPE_PREFIX = "type";
+
+    @Param({"10", "100"})
+    public int fileCount;
+
+    @Param({"10240", "1048576"})
+    public int fileSize;
+
+    @Param({"1", "3"})
+    public int typeCount;
+
+    /**
+     * The size of the pipe buffer, in KB, only used by {@link #pipedUpload()}; 1 KB is the default size of a pipe.
+     */
+    @Param({"64"})
+    public int pipeBufferSize;
+
+    @Param({"false"})
+    public boolean compactReports;
+
+    /**
+     * The compression level, among {@code default}, {@code store}, {@code fast} and {@code best}.
+     */
+    @Param({"default"})
+    public String compression;
+
+    @Param({"1"})
+    public int archiveThreads;
+
+    private MockThemis themis;
+    private ThemisInstance instance;
+    private File directory;
+    private FilePath workspace;
+    private String url;
+    private ArchiveOptions options;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("themis-benchmark").toFile();
+        for (int type = 0; type < typeCount; type++) {
+            File typeDirectory = new File(directory, TYPE_PREFIX + type);
+            for (int i = 0; i < fileCount; i++) {
+                writeReport(new File(typeDirectory, "report" + i + ".xml"));
+            }
+        }
+        workspace = new FilePath(directory);
+        themis = new MockThemis();
+        int port = themis.start();
+        themis.setReporHandler(API_KEY, "/api/reportFiles/" + SOURCE_KEY, exchange -> {
+            try {
+                IOUtils.copy(exchange.getRequestBody(), new NullOutputStream());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return MockThemis.response(200, "{}");
+        });
+        instance = new ThemisInstance("benchmark", "http://localhost:" + port, API_KEY);
+        instance.setCompression(compression);
+        instance.setArchiveThreads(archiveThreads);
+        url = instance.getEndpoints().getReportUrl(SOURCE_KEY);
+        options = ArchiveOptions.of(instance, compactReports);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        themis.stop();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * Archives the report files on a separate thread, through a pipe, as when reports are sent from the controller.
+     */
+    @Benchmark
+    public void pipedUpload() throws IOException, InterruptedException, ExecutionException {
+        for (int type = 0; type < typeCount; type++) {
+            ScannedFiles files = scan(type);
+            try (PipedOutputStream outputStream = new PipedOutputStream();
+                 PipedInputStream inputStream = new PipedInputStream(outputStream, pipeBufferSize * 1024)) {
+                Future<?> archiveTask = UploadExecutor.get().submitArchiver(() -> {
+                    ReportArchiver.zip(workspace, new BufferedOutputStream(outputStream), files, options);
+                    return null;
+                });
+                send(ReportRequests.newRequest(url, API_KEY, UUID.randomUUID().toString(), metadata(type),
+                                               ReportRequests.archiveBody(inputStream)));
+                archiveTask.get();
+            }
+        }
+    }
+
+    /**
+     * Archives the report files while the request is being written, as when reports are sent from the agent.
+     */
+    @Benchmark
+    public void streamedUpload() throws IOException, InterruptedException {
+        for (int type = 0; type < typeCount; type++) {
+            send(ReportRequests.newRequest(url, API_KEY, UUID.randomUUID().toString(), metadata(type),
+                                           ReportRequests.archiveBody(workspace, scan(type), options)));
+        }
+    }
+
+    /**
+     * Archives the report files to a temporary file, then sends the file, as when archives are spooled.
+     */
+    @Benchmark
+    public void spooledUpload() throws IOException, InterruptedException {
+        for (int type = 0; type < typeCount; type++) {
+            File spool = File.createTempFile("themis-benchmark", ".zip");
+            try {
+                try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(spool))) {
+                    ReportArchiver.zip(workspace, outputStream, scan(type), options);
+                }
+                send(ReportRequests.newRequest(url, API_KEY, UUID.randomUUID().toString(), metadata(type),
+                                               ReportRequests.archiveBody(spool)));
+            } finally {
+                Files.delete(spool.toPath());
+            }
+        }
+    }
+
+    /**
+     * Looks for the report files of a type, once per upload as when reports are published.
+     */
+    private ScannedFiles scan(int type) throws IOException, InterruptedException {
+        return workspace.act(new ReportScan(TYPE_PREFIX + type + "/**/*.xml"));
+    }
+
+    private void send(HttpPost request) throws IOException {
+        try (CloseableHttpResponse response = HttpClientUtils.getClient(instance).execute(request)) {
+            EntityUtils.consume(response.getEntity());
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IllegalStateException("Unexpected response: " + response.getStatusLine());
+            }
+        }
+    }
+
+    private byte[] metadata(int type) {
+        return new JSONObject().put("dataType", TYPE_PREFIX + type).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a report that compresses like a real test report, rather than random or uniform bytes.
+     */
+    private void writeReport(File file) throws IOException {
+        FileUtils.forceMkdir(file.getParentFile());
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite>\n");
+            long written = 0;
+            for (int i = 0; written < fileSize; i++) {
+                String line = "    <testcase classname=\"com.example.Test" + i % 97 + "\" name=\"test" + i
+                        + "\" time=\"0." + i % 1000 + "\"/>\n";
+                writer.write(line);
+                written += line.length();
+            }
+            writer.write("</testsuite>\n");
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.promyze.themis.jenkins.action;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building the metadata of the reports of a build, one per report type: copying the metadata of the build
+ * for each type and serializing each copy, as the reports were sent before, against serializing the metadata of the
+ * build once and splicing each type into it.
+ * <p>
+ * Run with the GC profiler to compare the memory allocated per operation, e.g.,
+ * {@code -Dbenchmark.args="MetadataBenchmark -prof gc"}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetadataBenchmark {
+
+    private static final String DATA_TYPE_ATTRIBUTE = "dataType";
+
+    @Param({"1", "10", "50"})
+    public int typeCount;
+
+    private JSONObject metadata;
+    private String[] types;
+
+    @Setup
+    public void setup() {
+        metadata = new JSONObject()
+                .put("commit", "f3dcc900830d696fb6faf2d9ecc8589e3c942559")
+                .put("branch", "origin/master")
+                .put("executionDate", 1513330262227L)
+                .put("dataWorkspace", "/var/jenkins/workspace/themis-plugin");
+        types = new String[typeCount];
+        for (int i = 0; i < typeCount; i++) {
+            types[i] = "type" + i;
+        }
+    }
+
+    @Benchmark
+    public void copyPerType(Blackhole blackhole) {
+        for (String type : types) {
+            JSONObject copy = new JSONObject(metadata, JSONObject.getNames(metadata)).put(DATA_TYPE_ATTRIBUTE, type);
+            blackhole.consume(copy.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public void serializedOnce(Blackhole blackhole) {
+        ReportMetadata template = new ReportMetadata(metadata, DATA_TYPE_ATTRIBUTE);
+        for (String type : types) {
+            blackhole.consume(template.forType(type));
+        }
+    }
+
+}
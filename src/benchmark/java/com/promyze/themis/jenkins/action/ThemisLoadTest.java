@@ -0,0 +1,268 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.ReportFile;
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration;
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import com.promyze.themis.jenkins.test.MockThemis;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.StreamTaskListener;
+import jenkins.model.GlobalConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Simulates many builds that send reports to Themis and refresh a project at the same time, against a local stand-in
+ * of Themis that can be slowed down, fail or throttle requests, and prints the throughput, the latency percentiles and
+ * the resources used by Jenkins.
+ * <p>
+ * Run with {@code mvn -P benchmark test -Dtest=ThemisLoadTest}, with the following optional system properties:
+ * </p>
+ * <ul>
+ * <li>{@code themis.load.builds}: the number of concurrent builds, 500 by default</li>
+ * <li>{@code themis.load.files}: the number of report files per build, 10 by default</li>
+ * <li>{@code themis.load.fileSize}: the size of each report file, in bytes, 10240 by default</li>
+ * <li>{@code themis.load.latency}: the time Themis waits before handling each request, in milliseconds, 50 by
+ * default</li>
+ * <li>{@code themis.load.errorRate}: the ratio of requests failing with a 503 status, 0 by default</li>
+ * <li>{@code themis.load.throttleRate}: the ratio of requests throttled with a 429 status, 0 by default</li>
+ * <li>{@code themis.load.serverThreads}: the number of threads handling requests in Themis, 50 by default</li>
+ * </ul>
+ */
+public class ThemisLoadTest {
+
+    private static final String INSTANCE_NAME = "instance";
+    private static final String API_KEY = "apiKey";
+    private static final String SOURCE_KEY = "sourceKey";
+    private static final String PROJECT_KEY = "projectKey";
+    private static final String TYPE = "junit";
+    private static final String INCLUDES = "reports/*.xml";
+
+    private final int builds = Integer.getInteger("themis.load.builds", 500);
+    private final int files = Integer.getInteger("themis.load.files", 10);
+    private final int fileSize = Integer.getInteger("themis.load.fileSize", 10240);
+    private final long latency = Long.getLong("themis.load.latency", 50);
+    private final double errorRate = Double.parseDouble(System.getProperty("themis.load.errorRate", "0"));
+    private final double throttleRate = Double.parseDouble(System.getProperty("themis.load.throttleRate", "0"));
+    private final int serverThreads = Integer.getInteger("themis.load.serverThreads", 50);
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MockThemis themis;
+
+    @Before
+    public void setupThemis() throws IOException {
+        themis = new MockThemis();
+        int port = themis.start(serverThreads);
+        themis.setFaults(latency, errorRate, throttleRate);
+        themis.setReporHandler(API_KEY, "/api/reportFiles/" + SOURCE_KEY, exchange -> {
+            try {
+                IOUtils.copy(exchange.getRequestBody(), new NullOutputStream());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return MockThemis.response(200, "{}");
+        });
+        themis.setRefreshHandler(API_KEY, "/api/refreshProject/" + PROJECT_KEY,
+                                 exchange -> MockThemis.response(200, "{\"dataDisplayed\":true}"));
+        GlobalConfiguration.all().get(ThemisGlobalConfiguration.class).setInstances(
+                Collections.singletonList(new ThemisInstance(INSTANCE_NAME, "http://localhost:" + port, API_KEY)));
+    }
+
+    @After
+    public void stopThemis() {
+        themis.stop();
+    }
+
+    @Test
+    public void testConcurrentBuilds() throws Exception {
+        List<FilePath> workspaces = new ArrayList<>();
+        for (int i = 0; i < builds; i++) {
+            workspaces.add(createWorkspace());
+        }
+        Statistics reports = new Statistics();
+        Statistics refreshes = new Statistics();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        AtomicInteger maxSockets = new AtomicInteger();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> maxSockets.accumulateAndGet(countSockets(), Math::max),
+                                    0, 100, TimeUnit.MILLISECONDS);
+        ExecutorService buildExecutor = Executors.newFixedThreadPool(builds);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (FilePath workspace : workspaces) {
+            // a job per build, whose requests are queued separately
+            Job<?, ?> job = mock(Job.class);
+            when(job.getFullName()).thenReturn("job" + futures.size());
+            futures.add(buildExecutor.submit(() -> {
+                start.await();
+                Run<?, ?> run = mock(Run.class);
+                doReturn(job).when(run).getParent();
+                StreamTaskListener listener = new StreamTaskListener(new NullOutputStream());
+                reports.measure(() -> newReportAction().perform(run, workspace, listener));
+                refreshes.measure(() -> newRefreshAction().perform(run, workspace, listener));
+                return null;
+            }));
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - startTime;
+        buildExecutor.shutdown();
+        sampler.shutdownNow();
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.out.println("Themis load test: " + builds + " builds, " + files + " files of " + fileSize
+                                   + " bytes, latency " + latency + " ms, error rate " + errorRate
+                                   + ", throttle rate " + throttleRate);
+        System.out.println("  duration:       " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+        System.out.println("  throughput:     " + String.format("%.1f", builds * 1e9 / elapsed) + " builds/s");
+        System.out.println("  reports:        " + reports);
+        System.out.println("  refreshes:      " + refreshes);
+        System.out.println("  peak threads:   " + threads.getPeakThreadCount());
+        System.out.println("  heap used:      " + memory.getHeapMemoryUsage().getUsed() / (1024 * 1024) + " MB");
+        System.out.println("  max sockets:    " + (maxSockets.get() < 0 ? "unknown" : maxSockets.get()));
+    }
+
+    private FilePath createWorkspace() throws IOException {
+        File workspace = temporaryFolder.newFolder();
+        File reports = new File(workspace, "reports");
+        FileUtils.forceMkdir(reports);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < fileSize; i++) {
+            content.append("<testcase classname=\"com.example.Test").append(i % 97).append("\" name=\"test")
+                    .append(i).append("\" time=\"0.").append(i % 1000).append("\"/>\n");
+        }
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < files; i++) {
+            Files.write(new File(reports, "report" + i + ".xml").toPath(), bytes);
+        }
+        return new FilePath(workspace);
+    }
+
+    private ThemisReportAction newReportAction() {
+        ThemisReportAction action = new ThemisReportAction(INSTANCE_NAME, SOURCE_KEY);
+        action.addReportFile(new ReportFile(TYPE, INCLUDES));
+        action.setEnvVars(new EnvVars());
+        action.setFailBuild(true);
+        return action;
+    }
+
+    private ThemisRefreshAction newRefreshAction() {
+        ThemisRefreshAction action = new ThemisRefreshAction(INSTANCE_NAME, PROJECT_KEY);
+        action.setFailBuild(true);
+        return action;
+    }
+
+    /**
+     * @return the number of sockets opened by the process, or -1 if it cannot be known on this system
+     */
+    private static int countSockets() {
+        Path fds = Paths.get("/proc/self/fd");
+        if (!Files.isDirectory(fds)) {
+            return -1;
+        }
+        try (Stream<Path> links = Files.list(fds)) {
+            return (int) links.filter(ThemisLoadTest::isSocket).count();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isSocket(Path link) {
+        try {
+            return Files.readSymbolicLink(link).toString().startsWith("socket:");
+        } catch (IOException e) {
+            // the file descriptor was closed meanwhile
+            return false;
+        }
+    }
+
+    /**
+     * The latencies and failures of an action, over all the builds.
+     */
+    private static final class Statistics {
+
+        private final List<Long> latencies = new ArrayList<>();
+        private final AtomicLong failures = new AtomicLong();
+
+        private void measure(Runnable action) {
+            long start = System.nanoTime();
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+            }
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            synchronized (latencies) {
+                latencies.add(latency);
+            }
+        }
+
+        @Override
+        public String toString() {
+            long[] sorted;
+            synchronized (latencies) {
+                sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+            }
+            Arrays.sort(sorted);
+            return "p50 " + percentile(sorted, 50) + " ms, p90 " + percentile(sorted, 90) + " ms, p99 "
+                    + percentile(sorted, 99) + " ms, max " + percentile(sorted, 100) + " ms, "
+                    + failures.get() + " failed";
+        }
+
+        private static long percentile(long[] sorted, int percentile) {
+            if (sorted.length == 0) {
+                return -1;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(index, 0)];
+        }
+
+    }
+
+}
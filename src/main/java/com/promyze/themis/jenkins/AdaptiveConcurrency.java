@@ -0,0 +1,151 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adapts the number of requests to a Themis instance running concurrently to the load of the instance, with an
+ * additive increase, multiplicative decrease (AIMD) of the limit.
+ * <p>
+ * The limit grows by one for each round of requests, i.e., as many requests as the limit, whose latency stays flat,
+ * up to the maximum number of concurrent uploads of the instance. It is halved when a request is throttled (429 or 503)
+ * or fails without a response, and reduced by a tenth when the recent latency of a type of request rises well above
+ * its usual latency. Requests that started before the limit was last reduced do not reduce it again, since they were
+ * sent under the previous limit.
+ * </p>
+ */
+public final class AdaptiveConcurrency {
+
+    /**
+     * The types of requests, whose latencies are compared separately.
+     */
+    public enum RequestType {
+        REPORT, AGENT_REPORT, BATCH_REPORT, REFRESH
+    }
+
+    // keyed by instance name, like the limiters it drives, see ThemisGlobalConfiguration#setInstances
+    private static final Map<String, AdaptiveConcurrency> LIMITS = new ConcurrentHashMap<>();
+    private static final double THROTTLED_BACKOFF = 0.5;
+    private static final double LATENCY_BACKOFF = 0.9;
+    // the recent latency is compared to the usual latency once there are a few samples
+    private static final int MIN_SAMPLES = 5;
+    private static final double LATENCY_TOLERANCE = 2;
+    // latencies that rise by less are noise, e.g., for short requests
+    private static final long MIN_LATENCY_RISE = 100;
+    private static final double RECENT_WEIGHT = 0.5;
+    private static final double USUAL_WEIGHT = 0.05;
+
+    private final Map<RequestType, Latency> latencies = new EnumMap<>(RequestType.class);
+    private int maxLimit;
+    private boolean fixed;
+    private double limit = -1;
+    private boolean reduced;
+    private long reducedAt;
+
+    private AdaptiveConcurrency() {
+    }
+
+    /**
+     * @param instance the Themis instance
+     * @return the adaptive limit of the instance, configured with its current settings
+     */
+    public static AdaptiveConcurrency get(ThemisInstance instance) {
+        AdaptiveConcurrency concurrency = LIMITS.computeIfAbsent(instance.getName(), n -> new AdaptiveConcurrency());
+        concurrency.configure(instance.getMaxConcurrentUploads(), instance.isFixedConcurrency());
+        return concurrency;
+    }
+
+    /**
+     * Drops the adaptive limits of the instances that are no longer configured.
+     *
+     * @param names the names of the configured instances
+     */
+    static void retain(Set<String> names) {
+        LIMITS.keySet().retainAll(names);
+    }
+
+    private synchronized void configure(int maxLimit, boolean fixed) {
+        this.maxLimit = maxLimit;
+        this.fixed = fixed;
+        if (limit < 0 || limit > maxLimit) {
+            limit = maxLimit;
+        }
+    }
+
+    /**
+     * @return the number of requests that may run concurrently
+     */
+    public synchronized int getLimit() {
+        return fixed ? maxLimit : (int) limit;
+    }
+
+    /**
+     * Records the response to a request.
+     *
+     * @param type       the type of the request
+     * @param start      the time the request started, as given by {@link System#nanoTime()}
+     * @param latency    the time until the response was received once the request was sent, in milliseconds, which
+     *                   must not include sending a request body, since it grows with the size of the body
+     * @param statusCode the status code of the response
+     */
+    public synchronized void onResponse(RequestType type, long start, long latency, int statusCode) {
+        if (statusCode == 429 || statusCode == 503) {
+            reduce(start, THROTTLED_BACKOFF);
+            return;
+        }
+        Latency latencyOfType = latencies.computeIfAbsent(type, t -> new Latency());
+        if (latencyOfType.add(latency)) {
+            reduce(start, LATENCY_BACKOFF);
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Records a request that failed without a response because of the instance, e.g., a timeout.
+     *
+     * @param start the time the request started, as given by {@link System#nanoTime()}
+     */
+    public synchronized void onDropped(long start) {
+        reduce(start, THROTTLED_BACKOFF);
+    }
+
+    private void reduce(long start, double ratio) {
+        if (reduced && start - reducedAt < 0) {
+            return;
+        }
+        limit = Math.max(1, limit * ratio);
+        reduced = true;
+        reducedAt = System.nanoTime();
+    }
+
+    /**
+     * The recent and usual latencies of a type of request, as exponential moving averages with different weights.
+     */
+    private static final class Latency {
+
+        private int samples;
+        private double recent;
+        private double usual;
+
+        /**
+         * @return whether the recent latency rose well above the usual one
+         */
+        private boolean add(long latency) {
+            if (samples++ == 0) {
+                recent = latency;
+                usual = latency;
+                return false;
+            }
+            recent += RECENT_WEIGHT * (latency - recent);
+            usual += USUAL_WEIGHT * (latency - usual);
+            return samples > MIN_SAMPLES && recent > usual * LATENCY_TOLERANCE && recent - usual > MIN_LATENCY_RISE;
+        }
+
+    }
+
+}
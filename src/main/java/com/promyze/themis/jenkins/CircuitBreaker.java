@@ -0,0 +1,177 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending requests to a Themis instance that keeps failing, so that builds fail fast instead of waiting for
+ * timeouts and adding to the load of the instance.
+ * <p>
+ * The circuit opens after a number of consecutive failures, or when at least half of the recent requests failed.
+ * While it is open, requests are not sent. Once the configured duration has elapsed, a single probe request is let
+ * through: the circuit closes if it succeeds, and opens again if it fails.
+ * </p>
+ */
+public final class CircuitBreaker {
+
+    /**
+     * The states of a circuit breaker.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    // keyed by instance name, see ThemisGlobalConfiguration#setInstances
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+    private static final int WINDOW_SIZE = 20;
+    private static final int MAX_FAILURE_PERCENTAGE = 50;
+
+    private final Deque<Boolean> window = new ArrayDeque<>();
+    private int failureThreshold;
+    private long openDuration;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long probeStartedAt;
+
+    private CircuitBreaker() {
+    }
+
+    /**
+     * @param instance the Themis instance
+     * @return the circuit breaker of the instance, configured with its current settings
+     */
+    public static CircuitBreaker get(ThemisInstance instance) {
+        CircuitBreaker breaker = BREAKERS.computeIfAbsent(instance.getName(), n -> new CircuitBreaker());
+        breaker.configure(instance.getCircuitFailureThreshold(),
+                          TimeUnit.SECONDS.toMillis(instance.getCircuitOpenDuration()));
+        return breaker;
+    }
+
+    /**
+     * Drops the circuit breakers of the instances that are no longer configured.
+     *
+     * @param names the names of the configured instances
+     */
+    static void retain(Set<String> names) {
+        BREAKERS.keySet().retainAll(names);
+    }
+
+    private synchronized void configure(int failureThreshold, long openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Checks whether a request may be sent. When the circuit is open and its duration has elapsed, the caller becomes
+     * the probe, and must record the outcome of its request.
+     *
+     * @return {@code true} if the request may be sent
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case OPEN:
+                if (now - openedAt < openDuration) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeStartedAt = now;
+                return true;
+            case HALF_OPEN:
+                // the probe may not record any outcome, e.g., if its build was aborted
+                if (now - probeStartedAt < openDuration) {
+                    return false;
+                }
+                probeStartedAt = now;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Checks whether requests may be sent, without becoming the probe of an open circuit, e.g., before preparing
+     * requests. Each request must still be acquired with {@link #tryAcquire()} right before it is sent.
+     *
+     * @return {@code true} if requests may be sent
+     */
+    public synchronized boolean isAvailable() {
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case OPEN:
+                return now - openedAt >= openDuration;
+            case HALF_OPEN:
+                return now - probeStartedAt >= openDuration;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Releases a request acquired with {@link #tryAcquire()} without recording its outcome, e.g., when it failed
+     * before reaching the instance. If it was the probe, the next request becomes the probe.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            probeStartedAt = 0;
+        }
+    }
+
+    /**
+     * Records a request that reached the instance and did not fail because of it.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        record(true);
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            window.clear();
+        }
+    }
+
+    /**
+     * Records a request that failed because the instance is unavailable or overloaded.
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        record(false);
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold || isFailureRateExceeded()) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    private void record(boolean success) {
+        window.addLast(success);
+        if (window.size() > WINDOW_SIZE) {
+            window.removeFirst();
+        }
+    }
+
+    private boolean isFailureRateExceeded() {
+        long failures = window.stream().filter(s -> !s).count();
+        return window.size() == WINDOW_SIZE && failures * 100 >= MAX_FAILURE_PERCENTAGE * WINDOW_SIZE;
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of requests that failed since the last success
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+}
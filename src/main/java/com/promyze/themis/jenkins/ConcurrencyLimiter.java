@@ -0,0 +1,159 @@
+package com.promyze.themis.jenkins;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Limits the number of tasks running concurrently, without blocking threads: tasks over the limit are queued, and
+ * dispatched to the executor when a running task completes.
+ * <p>
+ * Queued tasks are dispatched fairly across queues, e.g., one per job, taking a task from each queue in turn, so that
+ * a job submitting many tasks does not hold back the tasks of other jobs. Tasks of the same queue are dispatched in
+ * submission order. The limiter can also be paused, queuing all the tasks until it is resumed.
+ * </p>
+ */
+final class ConcurrencyLimiter {
+
+    static final String DEFAULT_QUEUE = "";
+
+    private final Executor executor;
+    // the queues that have pending tasks, in the order they are served
+    private final Map<String, Deque<Runnable>> pending = new LinkedHashMap<>();
+    private int pendingCount;
+    private int limit;
+    private int running;
+    private boolean paused;
+
+    ConcurrencyLimiter(Executor executor, int limit) {
+        this.executor = executor;
+        this.limit = limit;
+    }
+
+    /**
+     * Runs a task as soon as the limit allows it, in the default queue.
+     *
+     * @param task the task to run
+     */
+    void submit(Runnable task) {
+        submit(DEFAULT_QUEUE, task);
+    }
+
+    /**
+     * Runs a task as soon as the limit allows it, after the tasks of its queue that were submitted before it.
+     *
+     * @param queue the queue of the task
+     * @param task  the task to run
+     */
+    void submit(String queue, Runnable task) {
+        Runnable wrapped = () -> {
+            try {
+                task.run();
+            } finally {
+                release();
+            }
+        };
+        boolean dispatch;
+        synchronized (this) {
+            dispatch = !paused && running < limit;
+            if (dispatch) {
+                running++;
+            } else {
+                pending.computeIfAbsent(queue, q -> new ArrayDeque<>()).add(wrapped);
+                pendingCount++;
+            }
+        }
+        if (dispatch) {
+            executor.execute(wrapped);
+        }
+    }
+
+    /**
+     * Changes the limit. Queued tasks are dispatched immediately if the limit increases.
+     *
+     * @param limit the new limit
+     */
+    void setLimit(int limit) {
+        synchronized (this) {
+            this.limit = limit;
+        }
+        dispatchPending();
+    }
+
+    /**
+     * Stops dispatching tasks until the limiter is resumed, e.g., while the instance asked for requests to be paused.
+     * Running tasks go on, and tasks submitted meanwhile are queued.
+     *
+     * @return {@code true} if the limiter was not paused already, in which case the caller must resume it
+     */
+    synchronized boolean pause() {
+        boolean wasPaused = paused;
+        paused = true;
+        return !wasPaused;
+    }
+
+    /**
+     * Dispatches the queued tasks again, as far as the limit allows.
+     */
+    void resume() {
+        synchronized (this) {
+            paused = false;
+        }
+        dispatchPending();
+    }
+
+    synchronized boolean isPaused() {
+        return paused;
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    synchronized int getRunning() {
+        return running;
+    }
+
+    synchronized int getPending() {
+        return pendingCount;
+    }
+
+    private void release() {
+        synchronized (this) {
+            running--;
+        }
+        dispatchPending();
+    }
+
+    private void dispatchPending() {
+        List<Runnable> tasks = new ArrayList<>();
+        synchronized (this) {
+            while (!paused && running < limit && pendingCount > 0) {
+                running++;
+                tasks.add(pollNext());
+            }
+        }
+        tasks.forEach(executor::execute);
+    }
+
+    /**
+     * @return the next task of the first queue, which then moves to the end of the queues if it has more tasks
+     */
+    private Runnable pollNext() {
+        Iterator<Map.Entry<String, Deque<Runnable>>> queues = pending.entrySet().iterator();
+        Map.Entry<String, Deque<Runnable>> first = queues.next();
+        Runnable task = first.getValue().poll();
+        queues.remove();
+        if (!first.getValue().isEmpty()) {
+            pending.put(first.getKey(), first.getValue());
+        }
+        pendingCount--;
+        return task;
+    }
+
+}
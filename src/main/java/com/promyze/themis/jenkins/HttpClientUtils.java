@@ -1,44 +1,261 @@
 package com.promyze.themis.jenkins;
 
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import hudson.Extension;
 import hudson.ProxyConfiguration;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.GlobalConfiguration;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.ProxyAuthenticationStrategy;
 import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.protocol.HttpContext;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+/**
+ * Provides the HTTP clients used to communicate with Themis instances.
+ * <p>
+ * Clients are shared: there is one pooled client per {@link ThemisInstance} name, so that connections are kept alive
+ * and reused between builds. Callers must close the responses they obtain, but never the clients themselves. Clients
+ * are rebuilt when the global configuration or the Jenkins proxy configuration changes.
+ * </p>
+ */
 public class HttpClientUtils {
 
+    private static final Logger LOGGER = Logger.getLogger(HttpClientUtils.class.getName());
+
+    private static final long IDLE_CONNECTION_TIMEOUT = 30;
+    private static final long RETIRE_DELAY = 10;
+
+    // keyed by instance name, so that builds still using an instance replaced by saving the configuration share the
+    // client of the new instance instead of building one that nothing would close
+    private static final Map<String, PooledClient> CLIENTS = new ConcurrentHashMap<>();
+    private static volatile PooledClient defaultClient;
+
     private HttpClientUtils() {
         // private constructor for utility class
     }
 
+    /**
+     * Returns the shared client of a Themis instance, creating it if needed.
+     *
+     * @param instance the Themis instance
+     * @return the shared client, that must not be closed
+     */
+    public static CloseableHttpClient getClient(ThemisInstance instance) {
+        // the client is kept on the instance, so that the map is only looked up when it is first used or was reset
+        PooledClient client = instance.getPooledClient();
+        if (client == null || client.retired) {
+            client = CLIENTS.computeIfAbsent(instance.getName(), n -> newPooledClient(instance));
+            instance.setPooledClient(client);
+        }
+        return client.client;
+    }
+
+    private static PooledClient newPooledClient(ThemisInstance instance) {
+        return new PooledClient(instance.getMaxConnections(), instance.getMaxConnectionsPerRoute(),
+                                getRequestConfig(instance));
+    }
+
+    /**
+     * Returns a shared client that is not bound to a configured instance (e.g., for testing a connection).
+     *
+     * @return the shared client, that must not be closed
+     */
     public static CloseableHttpClient getClient() {
-        HttpClientBuilder clientBuilder = HttpClientBuilder.create();
+        PooledClient client = defaultClient;
+        if (client == null) {
+            synchronized (HttpClientUtils.class) {
+                client = defaultClient;
+                if (client == null) {
+                    client = new PooledClient(ThemisInstance.DEFAULT_MAX_CONNECTIONS,
+                                              ThemisInstance.DEFAULT_MAX_CONNECTIONS_PER_ROUTE,
+                                              getRequestConfig(ThemisInstance.DEFAULT_CONNECT_TIMEOUT,
+                                                               ThemisInstance.DEFAULT_SOCKET_TIMEOUT));
+                    defaultClient = client;
+                }
+            }
+        }
+        return client.client;
+    }
+
+    /**
+     * Rebuilds the shared clients with the current configuration. The client of each configured instance is replaced
+     * at once, so that no client is ever built from the settings of a replaced instance, and the clients of removed
+     * instances are discarded. Replaced clients are closed after a grace period, once their pending requests are
+     * completed.
+     *
+     * @param instances the configured instances
+     */
+    public static void reset(List<ThemisInstance> instances) {
+        List<PooledClient> retired = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (ThemisInstance instance : instances) {
+            // the first instance wins when several have the same name, as in the configuration
+            if (names.add(instance.getName())) {
+                PooledClient previous = CLIENTS.put(instance.getName(), newPooledClient(instance));
+                if (previous != null) {
+                    retired.add(previous);
+                }
+            }
+        }
+        CLIENTS.forEach((name, client) -> {
+            if (!names.contains(name) && CLIENTS.remove(name, client)) {
+                retired.add(client);
+            }
+        });
+        synchronized (HttpClientUtils.class) {
+            if (defaultClient != null) {
+                retired.add(defaultClient);
+                defaultClient = null;
+            }
+        }
+        retired.forEach(HttpClientUtils::retire);
+    }
+
+    private static void retire(PooledClient client) {
+        client.retired = true;
+        // not closed right away even if idle: a caller may have obtained the client without leasing a connection yet
+        Timer.get().schedule(() -> closeWhenIdle(client), RETIRE_DELAY, TimeUnit.SECONDS);
+    }
+
+    private static void closeWhenIdle(PooledClient client) {
+        if (client.isIdle()) {
+            client.close();
+        } else {
+            Timer.get().schedule(() -> closeWhenIdle(client), RETIRE_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Creates a new, non shared client. Since it does not depend on the Jenkins instance, it can be used on agents.
+     * The caller is responsible for closing it.
+     *
+     * @param proxySettings  the proxy settings to use, or {@code null} for direct connections
+     * @param connectTimeout the maximum time to establish a connection, in seconds
+     * @param socketTimeout  the maximum time without receiving data, in seconds
+     * @return a new client
+     */
+    public static CloseableHttpClient newClient(ProxySettings proxySettings, int connectTimeout, int socketTimeout) {
+        HttpClientBuilder clientBuilder = HttpClientBuilder.create()
+                .setDefaultRequestConfig(getRequestConfig(connectTimeout, socketTimeout));
+        configureProxy(clientBuilder, proxySettings);
+        return clientBuilder.build();
+    }
+
+    private static RequestConfig getRequestConfig(ThemisInstance instance) {
+        return getRequestConfig(instance.getConnectTimeout(), instance.getSocketTimeout());
+    }
+
+    private static RequestConfig getRequestConfig(int connectTimeout, int socketTimeout) {
+        int connectTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(connectTimeout);
+        return RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                // waiting for a pooled connection is bounded as well, when all connections are in use
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .setSocketTimeout((int) TimeUnit.SECONDS.toMillis(socketTimeout))
+                .build();
+    }
+
+    /**
+     * @return the current Jenkins proxy settings, or {@code null} if no proxy is configured
+     */
+    public static ProxySettings getProxySettings() {
         Jenkins jenkins = Jenkins.getInstance();
-        if (jenkins != null && jenkins.proxy != null) {
-            ProxyConfiguration proxy = jenkins.proxy;
+        return jenkins != null && jenkins.proxy != null ? new ProxySettings(jenkins.proxy) : null;
+    }
+
+    private static void configureProxy(HttpClientBuilder clientBuilder, ProxySettings proxy) {
+        if (proxy != null) {
             clientBuilder.setRoutePlanner(new ProxyRoutePlanner(proxy));
-            if (proxy.getUserName() != null) {
+            if (proxy.userName != null) {
                 CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
                 credentialsProvider.setCredentials(new AuthScope(proxy.name, proxy.port),
-                                                   new UsernamePasswordCredentials(proxy.getUserName(),
-                                                                                   proxy.getPassword()));
+                                                   new UsernamePasswordCredentials(proxy.userName, proxy.password));
                 clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
                 clientBuilder.setProxyAuthenticationStrategy(new ProxyAuthenticationStrategy());
             }
         }
-        return clientBuilder.build();
+    }
+
+    /**
+     * A serializable copy of the Jenkins proxy configuration, that can be sent to agents.
+     */
+    public static final class ProxySettings implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final int port;
+        private final String userName;
+        private final String password;
+        private final List<Pattern> noProxyHostPatterns;
+
+        private ProxySettings(ProxyConfiguration proxyConfiguration) {
+            this.name = proxyConfiguration.name;
+            this.port = proxyConfiguration.port;
+            this.userName = proxyConfiguration.getUserName();
+            this.password = proxyConfiguration.getPassword();
+            this.noProxyHostPatterns = new ArrayList<>(proxyConfiguration.getNoProxyHostPatterns());
+        }
+
+    }
+
+    static final class PooledClient {
+
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final CloseableHttpClient client;
+        private volatile boolean retired;
+
+        private PooledClient(int maxConnections, int maxConnectionsPerRoute, RequestConfig requestConfig) {
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+            HttpClientBuilder clientBuilder = HttpClientBuilder.create()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(requestConfig)
+                    .evictExpiredConnections()
+                    .evictIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.SECONDS);
+            configureProxy(clientBuilder, getProxySettings());
+            client = clientBuilder.build();
+        }
+
+        private boolean isIdle() {
+            return connectionManager.getTotalStats().getLeased() == 0;
+        }
+
+        private void close() {
+            try {
+                client.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error while closing HTTP client", e);
+            }
+        }
+
     }
 
     private static final class ProxyRoutePlanner extends DefaultRoutePlanner {
@@ -46,10 +263,10 @@ public class HttpClientUtils {
         private final HttpHost proxy;
         private final List<Pattern> noProxyHostPatterns;
 
-        public ProxyRoutePlanner(ProxyConfiguration proxyConfiguration) {
+        public ProxyRoutePlanner(ProxySettings proxySettings) {
             super(null);
-            this.proxy = new HttpHost(proxyConfiguration.name, proxyConfiguration.port);
-            this.noProxyHostPatterns = proxyConfiguration.getNoProxyHostPatterns();
+            this.proxy = new HttpHost(proxySettings.name, proxySettings.port);
+            this.noProxyHostPatterns = proxySettings.noProxyHostPatterns;
         }
 
         @Override
@@ -59,4 +276,19 @@ public class HttpClientUtils {
         }
     }
 
+    /**
+     * Rebuilds the clients when the Jenkins proxy configuration is saved.
+     */
+    @Extension
+    public static final class ProxyConfigurationListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof ProxyConfiguration) {
+                reset(GlobalConfiguration.all().get(ThemisGlobalConfiguration.class).getInstances());
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,96 @@
+package com.promyze.themis.jenkins;
+
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Decides whether a failed request to a Themis instance is attempted again, and when.
+ * <p>
+ * Requests are attempted again when they fail with one of the configured status codes, or because of a connection
+ * error that may not happen again (the connection was refused, reset or timed out, or closed before a response).
+ * Delays between attempts grow exponentially, with a random jitter so that builds failing together do not retry
+ * together.
+ * </p>
+ */
+public final class RetryPolicy {
+
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private final int maxAttempts;
+    private final long backoff;
+    private final Set<Integer> retryStatuses;
+
+    /**
+     * Default constructor.
+     *
+     * @param maxAttempts   the maximum number of attempts of a request, including the first one
+     * @param backoff       the delay before the second attempt, in milliseconds, doubled for each further attempt
+     * @param retryStatuses the status codes for which a request is attempted again
+     */
+    public RetryPolicy(int maxAttempts, long backoff, Set<Integer> retryStatuses) {
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.retryStatuses = Collections.unmodifiableSet(retryStatuses);
+    }
+
+    /**
+     * Parses a list of status codes.
+     *
+     * @param statuses status codes, separated by commas
+     * @return the status codes
+     * @throws NumberFormatException if a status code is not a number
+     */
+    public static Set<Integer> parseStatuses(String statuses) {
+        return Arrays.stream(statuses.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(Integer::valueOf)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * @param attempt the number of the attempt that failed, starting at 1
+     * @return whether another attempt is allowed
+     */
+    public boolean hasAttemptsLeft(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * @param statusCode the status code of the response
+     * @return whether the request should be attempted again
+     */
+    public boolean isRetryable(int statusCode) {
+        return retryStatuses.contains(statusCode);
+    }
+
+    /**
+     * @param exception the exception thrown by the request
+     * @return whether the request should be attempted again
+     */
+    public boolean isRetryable(Exception exception) {
+        return exception instanceof SocketException
+                || exception instanceof SocketTimeoutException
+                || exception instanceof ConnectTimeoutException
+                || exception instanceof NoHttpResponseException;
+    }
+
+    /**
+     * @param attempt the number of the attempt that failed, starting at 1
+     * @return the delay before the next attempt, in milliseconds
+     */
+    public long getDelay(int attempt) {
+        long delay = Math.min(MAX_DELAY, backoff << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.promyze.themis.jenkins;
+
+/**
+ * The URLs of the API of a Themis instance. The prefix of each endpoint is computed once from the base URL of the
+ * instance, so that building the URL of a request only appends a key to it.
+ */
+public final class ThemisEndpoints {
+
+    private static final String REPORT_PATH = "/api/reportFiles/";
+    private static final String BATCH_SUFFIX = "/batch";
+    private static final String REFRESH_PATH = "/api/refreshProject/";
+    private static final String REFRESH_STATUS_PATH = "/api/refreshStatus/";
+    private static final String TEST_CONNECTION_PATH = "/api/testConnection";
+
+    private final String reportPrefix;
+    private final String refreshPrefix;
+    private final String refreshStatusPrefix;
+    private final String testConnectionUrl;
+
+    /**
+     * Default constructor.
+     *
+     * @param url the base URL of the Themis instance
+     */
+    public ThemisEndpoints(String url) {
+        this.reportPrefix = url + REPORT_PATH;
+        this.refreshPrefix = url + REFRESH_PATH;
+        this.refreshStatusPrefix = url + REFRESH_STATUS_PATH;
+        this.testConnectionUrl = url + TEST_CONNECTION_PATH;
+    }
+
+    /**
+     * @param sourceKey the unique key of the source
+     * @return the URL to send the reports of the source to
+     */
+    public String getReportUrl(String sourceKey) {
+        return reportPrefix + sourceKey;
+    }
+
+    /**
+     * @param sourceKey the unique key of the source
+     * @return the URL to send the reports of all types of the source to, in a single request
+     */
+    public String getBatchReportUrl(String sourceKey) {
+        return reportPrefix + sourceKey + BATCH_SUFFIX;
+    }
+
+    /**
+     * @param projectKey the key of the project
+     * @return the URL to refresh the project
+     */
+    public String getRefreshUrl(String projectKey) {
+        return refreshPrefix + projectKey;
+    }
+
+    /**
+     * @param projectKey the key of the project
+     * @return the URL of the status of the last refresh of the project
+     */
+    public String getRefreshStatusUrl(String projectKey) {
+        return refreshStatusPrefix + projectKey;
+    }
+
+    /**
+     * @return the URL to test the connection to the instance
+     */
+    public String getTestConnectionUrl() {
+        return testConnectionUrl;
+    }
+
+}
@@ -4,22 +4,27 @@ import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 import jenkins.model.GlobalConfiguration;
 import net.sf.json.JSONObject;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.conn.HttpHostConnectException;
-import org.apache.http.impl.client.CloseableHttpClient;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.zip.Deflater;
 
 import static com.promyze.themis.jenkins.FormValidationUtils.checkNotNullOrEmpty;
 
@@ -30,29 +35,120 @@ import static com.promyze.themis.jenkins.FormValidationUtils.checkNotNullOrEmpty
 public class ThemisGlobalConfiguration extends GlobalConfiguration {
 
     public static final String THEMIS_API_KEY = "themis-api-key";
+    public static final int DEFAULT_OUTBOX_MAX_SIZE = 1024;
 
-    private volatile List<ThemisInstance> instances = new ArrayList<>();
+    // persisted, while lookups go through the snapshot built from it
+    private List<ThemisInstance> instances = new ArrayList<>();
+    private transient volatile Instances snapshot = new Instances(Collections.emptyList());
+    private int maxConcurrentUploads;
+    private int outboxMaxSize;
 
     public ThemisGlobalConfiguration() {
         load();
+        setInstances(instances);
+        UploadExecutor.get().setMaxThreads(getMaxConcurrentUploads());
     }
 
+    /**
+     * @return the configured instances, which cannot be modified
+     */
     public List<ThemisInstance> getInstances() {
-        return instances;
+        return snapshot.list;
+    }
+
+    /**
+     * Replaces the configured instances. Builds running concurrently see either all the previous instances or all the
+     * new ones.
+     * <p>
+     * What was learned about each instance, such as the state of its circuit breaker, a pause it asked for or its
+     * concurrency limit, is kept by instance name: it describes the server rather than its settings, so it survives
+     * saving the configuration, and builds still using the previous instances share it with the new ones. New settings
+     * apply to it on next use, and it is dropped when the instance is removed.
+     * </p>
+     *
+     * @param instances the new instances
+     */
+    public void setInstances(List<ThemisInstance> instances) {
+        Instances newSnapshot = new Instances(instances == null ? Collections.emptyList() : instances);
+        this.instances = new ArrayList<>(newSnapshot.list);
+        this.snapshot = newSnapshot;
+        CircuitBreaker.retain(newSnapshot.byName.keySet());
+        Throttle.retain(newSnapshot.byName.keySet());
+        AdaptiveConcurrency.retain(newSnapshot.byName.keySet());
     }
 
     public ThemisInstance getInstance(String name) {
         Objects.requireNonNull(name, "Parameter name must not be null");
-        return instances.stream().filter(i -> name.equals(i.getName())).findAny().orElse(null);
+        return snapshot.byName.get(name);
+    }
+
+    /**
+     * @return the maximum number of uploads running concurrently, for all instances
+     */
+    public int getMaxConcurrentUploads() {
+        return maxConcurrentUploads > 0 ? maxConcurrentUploads : UploadExecutor.DEFAULT_MAX_THREADS;
+    }
+
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        this.maxConcurrentUploads = maxConcurrentUploads;
+    }
+
+    /**
+     * @return the maximum size of the report outbox, in megabytes
+     */
+    public int getOutboxMaxSize() {
+        return outboxMaxSize > 0 ? outboxMaxSize : DEFAULT_OUTBOX_MAX_SIZE;
+    }
+
+    public void setOutboxMaxSize(int outboxMaxSize) {
+        this.outboxMaxSize = outboxMaxSize;
+    }
+
+    /**
+     * @return the executor running the uploads, for displaying its activity
+     */
+    public UploadExecutor getUploadExecutor() {
+        return UploadExecutor.get();
+    }
+
+    public FormValidation doCheckMaxConcurrentUploads(@QueryParameter String maxConcurrentUploads) {
+        return FormValidation.validatePositiveInteger(maxConcurrentUploads);
+    }
+
+    public FormValidation doCheckOutboxMaxSize(@QueryParameter String outboxMaxSize) {
+        return FormValidation.validatePositiveInteger(outboxMaxSize);
     }
 
     @Override
     public boolean configure(StaplerRequest req, JSONObject json) {
-        this.instances = req.bindJSONToList(ThemisInstance.class, json.get("instances"));
+        setInstances(req.bindJSONToList(ThemisInstance.class, json.get("instances")));
+        this.maxConcurrentUploads = json.optInt("maxConcurrentUploads", UploadExecutor.DEFAULT_MAX_THREADS);
+        this.outboxMaxSize = json.optInt("outboxMaxSize", DEFAULT_OUTBOX_MAX_SIZE);
         save();
+        UploadExecutor.get().setMaxThreads(getMaxConcurrentUploads());
+        // builds the clients of the new instances now rather than in the first build that uses them
+        HttpClientUtils.reset(getInstances());
         return true;
     }
 
+    /**
+     * An immutable snapshot of the configured instances, indexed by name.
+     */
+    private static final class Instances {
+
+        private final List<ThemisInstance> list;
+        private final Map<String, ThemisInstance> byName;
+
+        private Instances(List<ThemisInstance> instances) {
+            list = Collections.unmodifiableList(new ArrayList<>(instances));
+            Map<String, ThemisInstance> index = new HashMap<>();
+            // the first instance wins when several have the same name
+            list.forEach(i -> index.putIfAbsent(i.getName(), i));
+            byName = Collections.unmodifiableMap(index);
+        }
+
+    }
+
     /**
      * A simple class to contain the information about a Themis instance.
      */
@@ -60,9 +156,55 @@ public class ThemisGlobalConfiguration extends GlobalConfiguration {
 
         private static final long serialVersionUID = 1L;
 
+        public static final int DEFAULT_MAX_CONNECTIONS = 20;
+        public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+        public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 4;
+        public static final int DEFAULT_MAX_ATTEMPTS = 3;
+        public static final int DEFAULT_RETRY_BACKOFF = 1000;
+        public static final String DEFAULT_RETRY_STATUSES = "502,503,504";
+        public static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+        public static final int DEFAULT_CIRCUIT_OPEN_DURATION = 60;
+        public static final int DEFAULT_CONNECT_TIMEOUT = 10;
+        public static final int DEFAULT_SOCKET_TIMEOUT = 60;
+        public static final int DEFAULT_REQUEST_TIMEOUT = 600;
+        public static final int DEFAULT_PIPE_BUFFER_SIZE = 64;
+        public static final String DEFAULT_COMPRESSION = "default";
+        public static final int DEFAULT_ARCHIVE_THREADS = 1;
+        public static final int DEFAULT_MAX_ERROR_BODY_SIZE = 4096;
+
+        private static final Map<String, Integer> COMPRESSION_LEVELS = new LinkedHashMap<>();
+
+        static {
+            COMPRESSION_LEVELS.put(DEFAULT_COMPRESSION, Deflater.DEFAULT_COMPRESSION);
+            COMPRESSION_LEVELS.put("store", Deflater.NO_COMPRESSION);
+            COMPRESSION_LEVELS.put("fast", Deflater.BEST_SPEED);
+            COMPRESSION_LEVELS.put("best", Deflater.BEST_COMPRESSION);
+        }
+
         private final String name;
         private final String url;
         private final String apiKey;
+        private int maxConnections;
+        private int maxConnectionsPerRoute;
+        private int maxConcurrentUploads;
+        private boolean fixedConcurrency;
+        private int maxAttempts;
+        private int retryBackoff;
+        private String retryStatuses;
+        private int circuitFailureThreshold;
+        private int circuitOpenDuration;
+        private int connectTimeout;
+        private int socketTimeout;
+        private int requestTimeout;
+        private int pipeBufferSize;
+        private boolean spoolArchives;
+        private String compression;
+        private int archiveThreads;
+        private int refreshDebounce;
+        private int maxErrorBodySize;
+        private transient volatile ThemisEndpoints endpoints;
+        // the shared client of the instance, see HttpClientUtils#getClient(ThemisInstance)
+        private transient volatile HttpClientUtils.PooledClient client;
 
         @DataBoundConstructor
         public ThemisInstance(String name, String url, String apiKey) {
@@ -83,11 +225,286 @@ public class ThemisGlobalConfiguration extends GlobalConfiguration {
             return apiKey;
         }
 
+        /**
+         * @return the URLs of the API of the instance, computed once
+         */
+        public ThemisEndpoints getEndpoints() {
+            ThemisEndpoints result = endpoints;
+            if (result == null) {
+                // not built by the constructor, which is not called when the configuration is loaded
+                result = new ThemisEndpoints(url);
+                endpoints = result;
+            }
+            return result;
+        }
+
+        /**
+         * @return the shared client last used for this instance, which may have been retired since
+         */
+        HttpClientUtils.PooledClient getPooledClient() {
+            return client;
+        }
+
+        void setPooledClient(HttpClientUtils.PooledClient client) {
+            this.client = client;
+        }
+
+        /**
+         * @return the maximum number of pooled connections to this instance
+         */
+        public int getMaxConnections() {
+            return maxConnections > 0 ? maxConnections : DEFAULT_MAX_CONNECTIONS;
+        }
+
+        @DataBoundSetter
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        /**
+         * @return the maximum number of pooled connections per route (i.e., per target host or proxy)
+         */
+        public int getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute > 0 ? maxConnectionsPerRoute : DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        }
+
+        @DataBoundSetter
+        public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        }
+
+        /**
+         * @return the maximum number of uploads to this instance running concurrently
+         */
+        public int getMaxConcurrentUploads() {
+            return maxConcurrentUploads > 0 ? maxConcurrentUploads : DEFAULT_MAX_CONCURRENT_UPLOADS;
+        }
+
+        @DataBoundSetter
+        public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+            this.maxConcurrentUploads = maxConcurrentUploads;
+        }
+
+        /**
+         * @return whether the maximum number of concurrent uploads is always allowed, rather than adapted to the
+         * latency and throttling of this instance, see {@link AdaptiveConcurrency}
+         */
+        public boolean isFixedConcurrency() {
+            return fixedConcurrency;
+        }
+
+        @DataBoundSetter
+        public void setFixedConcurrency(boolean fixedConcurrency) {
+            this.fixedConcurrency = fixedConcurrency;
+        }
+
+        /**
+         * @return the maximum number of attempts of a request to this instance, including the first one
+         */
+        public int getMaxAttempts() {
+            return maxAttempts > 0 ? maxAttempts : DEFAULT_MAX_ATTEMPTS;
+        }
+
+        @DataBoundSetter
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        /**
+         * @return the delay before attempting a failed request again, in milliseconds
+         */
+        public int getRetryBackoff() {
+            return retryBackoff > 0 ? retryBackoff : DEFAULT_RETRY_BACKOFF;
+        }
+
+        @DataBoundSetter
+        public void setRetryBackoff(int retryBackoff) {
+            this.retryBackoff = retryBackoff;
+        }
+
+        /**
+         * @return the status codes for which a request is attempted again, separated by commas
+         */
+        public String getRetryStatuses() {
+            return retryStatuses != null ? retryStatuses : DEFAULT_RETRY_STATUSES;
+        }
+
+        @DataBoundSetter
+        public void setRetryStatuses(String retryStatuses) {
+            this.retryStatuses = retryStatuses;
+        }
+
+        /**
+         * @return the policy for attempting failed requests to this instance again
+         */
+        public RetryPolicy getRetryPolicy() {
+            return new RetryPolicy(getMaxAttempts(), getRetryBackoff(), RetryPolicy.parseStatuses(getRetryStatuses()));
+        }
+
+        /**
+         * @return the number of consecutive failed requests after which requests to this instance are stopped
+         */
+        public int getCircuitFailureThreshold() {
+            return circuitFailureThreshold > 0 ? circuitFailureThreshold : DEFAULT_CIRCUIT_FAILURE_THRESHOLD;
+        }
+
+        @DataBoundSetter
+        public void setCircuitFailureThreshold(int circuitFailureThreshold) {
+            this.circuitFailureThreshold = circuitFailureThreshold;
+        }
+
+        /**
+         * @return the duration during which requests to this instance are stopped, in seconds
+         */
+        public int getCircuitOpenDuration() {
+            return circuitOpenDuration > 0 ? circuitOpenDuration : DEFAULT_CIRCUIT_OPEN_DURATION;
+        }
+
+        @DataBoundSetter
+        public void setCircuitOpenDuration(int circuitOpenDuration) {
+            this.circuitOpenDuration = circuitOpenDuration;
+        }
+
+        /**
+         * @return the maximum time to establish a connection to this instance, in seconds
+         */
+        public int getConnectTimeout() {
+            return connectTimeout > 0 ? connectTimeout : DEFAULT_CONNECT_TIMEOUT;
+        }
+
+        @DataBoundSetter
+        public void setConnectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        /**
+         * @return the maximum time without receiving data from this instance, in seconds
+         */
+        public int getSocketTimeout() {
+            return socketTimeout > 0 ? socketTimeout : DEFAULT_SOCKET_TIMEOUT;
+        }
+
+        @DataBoundSetter
+        public void setSocketTimeout(int socketTimeout) {
+            this.socketTimeout = socketTimeout;
+        }
+
+        /**
+         * @return the maximum duration of a request to this instance, including archiving the reports, in seconds
+         */
+        public int getRequestTimeout() {
+            return requestTimeout > 0 ? requestTimeout : DEFAULT_REQUEST_TIMEOUT;
+        }
+
+        @DataBoundSetter
+        public void setRequestTimeout(int requestTimeout) {
+            this.requestTimeout = requestTimeout;
+        }
+
+        /**
+         * @return the size of the buffer between archiving the reports and sending them to this instance, in KB
+         */
+        public int getPipeBufferSize() {
+            return pipeBufferSize > 0 ? pipeBufferSize : DEFAULT_PIPE_BUFFER_SIZE;
+        }
+
+        @DataBoundSetter
+        public void setPipeBufferSize(int pipeBufferSize) {
+            this.pipeBufferSize = pipeBufferSize;
+        }
+
+        /**
+         * @return whether reports are archived to a temporary file before being sent to this instance, rather than
+         * streamed while they are archived
+         */
+        public boolean isSpoolArchives() {
+            return spoolArchives;
+        }
+
+        @DataBoundSetter
+        public void setSpoolArchives(boolean spoolArchives) {
+            this.spoolArchives = spoolArchives;
+        }
+
+        /**
+         * @return the compression of the archives sent to this instance: {@code default}, {@code store}, {@code fast}
+         * or {@code best}
+         */
+        public String getCompression() {
+            return compression != null && COMPRESSION_LEVELS.containsKey(compression)
+                    ? compression
+                    : DEFAULT_COMPRESSION;
+        }
+
+        @DataBoundSetter
+        public void setCompression(String compression) {
+            this.compression = compression;
+        }
+
+        /**
+         * @return the deflate level of the archives sent to this instance
+         */
+        public int getCompressionLevel() {
+            return COMPRESSION_LEVELS.get(getCompression());
+        }
+
+        /**
+         * @return the maximum number of threads compressing the archives sent to this instance, on the node that holds
+         * the workspace
+         */
+        public int getArchiveThreads() {
+            return archiveThreads > 0 ? archiveThreads : DEFAULT_ARCHIVE_THREADS;
+        }
+
+        @DataBoundSetter
+        public void setArchiveThreads(int archiveThreads) {
+            this.archiveThreads = archiveThreads;
+        }
+
+        /**
+         * @return the time during which refresh requests for the same project are merged into one, in seconds, or 0 if
+         * they are not merged
+         */
+        public int getRefreshDebounce() {
+            return Math.max(refreshDebounce, 0);
+        }
+
+        @DataBoundSetter
+        public void setRefreshDebounce(int refreshDebounce) {
+            this.refreshDebounce = refreshDebounce;
+        }
+
+        /**
+         * @return the maximum size of the error responses of this instance that are kept to be reported, in bytes
+         */
+        public int getMaxErrorBodySize() {
+            return maxErrorBodySize > 0 ? maxErrorBodySize : DEFAULT_MAX_ERROR_BODY_SIZE;
+        }
+
+        @DataBoundSetter
+        public void setMaxErrorBodySize(int maxErrorBodySize) {
+            this.maxErrorBodySize = maxErrorBodySize;
+        }
+
+        /**
+         * @return a description of the state of the circuit breaker of this instance, for display
+         */
+        public String getCircuitState() {
+            CircuitBreaker breaker = CircuitBreaker.get(this);
+            switch (breaker.getState()) {
+                case OPEN:
+                    return Messages.circuitOpen(breaker.getConsecutiveFailures());
+                case HALF_OPEN:
+                    return Messages.circuitHalfOpen();
+                default:
+                    return Messages.circuitClosed();
+            }
+        }
+
         @Extension
         public static class ThemisInstanceDescriptor extends Descriptor<ThemisInstance> {
 
             private static final String VALID_URL_PATTERN = "^https?://.+";
-            private static final String TEST_URL_FORMAT = "{0}/api/testConnection";
 
             @Override
             public String getDisplayName() {
@@ -123,9 +540,84 @@ public class ThemisGlobalConfiguration extends GlobalConfiguration {
                 }
             }
 
+            public FormValidation doCheckMaxConnections(@QueryParameter String maxConnections) {
+                return FormValidation.validatePositiveInteger(maxConnections);
+            }
+
+            public FormValidation doCheckMaxConnectionsPerRoute(@QueryParameter String maxConnectionsPerRoute) {
+                return FormValidation.validatePositiveInteger(maxConnectionsPerRoute);
+            }
+
+            public FormValidation doCheckMaxConcurrentUploads(@QueryParameter String maxConcurrentUploads) {
+                return FormValidation.validatePositiveInteger(maxConcurrentUploads);
+            }
+
+            public FormValidation doCheckMaxAttempts(@QueryParameter String maxAttempts) {
+                return FormValidation.validatePositiveInteger(maxAttempts);
+            }
+
+            public FormValidation doCheckRetryBackoff(@QueryParameter String retryBackoff) {
+                return FormValidation.validatePositiveInteger(retryBackoff);
+            }
+
+            public FormValidation doCheckRetryStatuses(@QueryParameter String retryStatuses) {
+                try {
+                    RetryPolicy.parseStatuses(retryStatuses);
+                    return FormValidation.ok();
+                } catch (NumberFormatException e) {
+                    return FormValidation.error(Messages.invalidStatuses());
+                }
+            }
+
+            public FormValidation doCheckCircuitFailureThreshold(@QueryParameter String circuitFailureThreshold) {
+                return FormValidation.validatePositiveInteger(circuitFailureThreshold);
+            }
+
+            public FormValidation doCheckCircuitOpenDuration(@QueryParameter String circuitOpenDuration) {
+                return FormValidation.validatePositiveInteger(circuitOpenDuration);
+            }
+
+            public FormValidation doCheckConnectTimeout(@QueryParameter String connectTimeout) {
+                return FormValidation.validatePositiveInteger(connectTimeout);
+            }
+
+            public FormValidation doCheckSocketTimeout(@QueryParameter String socketTimeout) {
+                return FormValidation.validatePositiveInteger(socketTimeout);
+            }
+
+            public FormValidation doCheckRequestTimeout(@QueryParameter String requestTimeout) {
+                return FormValidation.validatePositiveInteger(requestTimeout);
+            }
+
+            public FormValidation doCheckPipeBufferSize(@QueryParameter String pipeBufferSize) {
+                return FormValidation.validatePositiveInteger(pipeBufferSize);
+            }
+
+            public FormValidation doCheckArchiveThreads(@QueryParameter String archiveThreads) {
+                return FormValidation.validatePositiveInteger(archiveThreads);
+            }
+
+            public FormValidation doCheckRefreshDebounce(@QueryParameter String refreshDebounce) {
+                return FormValidation.validateNonNegativeInteger(refreshDebounce);
+            }
+
+            public FormValidation doCheckMaxErrorBodySize(@QueryParameter String maxErrorBodySize) {
+                return FormValidation.validatePositiveInteger(maxErrorBodySize);
+            }
+
+            public ListBoxModel doFillCompressionItems(@QueryParameter String compression) {
+                ListBoxModel items = new ListBoxModel();
+                items.add(new ListBoxModel.Option(Messages.compressionDefault(), DEFAULT_COMPRESSION,
+                                                  DEFAULT_COMPRESSION.equals(compression)));
+                items.add(new ListBoxModel.Option(Messages.compressionStore(), "store", "store".equals(compression)));
+                items.add(new ListBoxModel.Option(Messages.compressionFast(), "fast", "fast".equals(compression)));
+                items.add(new ListBoxModel.Option(Messages.compressionBest(), "best", "best".equals(compression)));
+                return items;
+            }
+
             public FormValidation doTestConnection(@QueryParameter String url, @QueryParameter String apiKey) {
-                try (CloseableHttpClient client = HttpClientUtils.getClient();
-                     CloseableHttpResponse response = client.execute(getTestRequest(url, apiKey))) {
+                HttpGet request = getTestRequest(url, apiKey);
+                try (CloseableHttpResponse response = HttpClientUtils.getClient().execute(request)) {
                     int statusCode = response.getStatusLine().getStatusCode();
                     switch (statusCode) {
                         case 200:
@@ -146,7 +638,7 @@ public class ThemisGlobalConfiguration extends GlobalConfiguration {
             }
 
             private HttpGet getTestRequest(String url, String apiKey) {
-                HttpGet request = new HttpGet(MessageFormat.format(TEST_URL_FORMAT, url));
+                HttpGet request = new HttpGet(new ThemisEndpoints(url).getTestConnectionUrl());
                 request.setHeader(THEMIS_API_KEY, apiKey);
                 return request;
             }
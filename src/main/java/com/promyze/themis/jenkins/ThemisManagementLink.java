@@ -0,0 +1,54 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.action.ReportOutbox;
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+/**
+ * A page of the Jenkins management section displaying the activity of the uploads to Themis instances.
+ */
+@Extension
+public class ThemisManagementLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "network.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "themis";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.themisManagement();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.themisManagementDescription();
+    }
+
+    /**
+     * @return the outbox of the reports sent in the background
+     */
+    public ReportOutbox getOutbox() {
+        return ReportOutbox.get();
+    }
+
+    /**
+     * @return the durations of the requests sent to Themis instances
+     */
+    public TimingStatistics getTimingStatistics() {
+        return TimingStatistics.get();
+    }
+
+    /**
+     * @return the executor running the uploads
+     */
+    public UploadExecutor getUploadExecutor() {
+        return UploadExecutor.get();
+    }
+
+}
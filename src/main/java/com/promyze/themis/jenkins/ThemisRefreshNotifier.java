@@ -12,6 +12,7 @@ import hudson.tasks.BuildStepMonitor;
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.Nonnull;
 
@@ -44,6 +45,38 @@ public class ThemisRefreshNotifier extends BaseThemisNotifier<ThemisRefreshActio
         return action.getProjectKey();
     }
 
+    /**
+     * @return whether the refresh is skipped if reports sent to the same instance during the build were not all sent
+     * successfully
+     */
+    public boolean isAfterReports() {
+        return action.isAfterReports();
+    }
+
+    /**
+     * @param afterReports {@code true} if the refresh should only be requested once all the reports sent to the same
+     *                     instance during the build were sent successfully
+     */
+    @DataBoundSetter
+    public void setAfterReports(boolean afterReports) {
+        action.setAfterReports(afterReports);
+    }
+
+    /**
+     * @return whether the build waits for the refresh to complete
+     */
+    public boolean isWaitForCompletion() {
+        return action.isWaitForCompletion();
+    }
+
+    /**
+     * @param waitForCompletion {@code true} if the build should wait for the refresh to complete
+     */
+    @DataBoundSetter
+    public void setWaitForCompletion(boolean waitForCompletion) {
+        action.setWaitForCompletion(waitForCompletion);
+    }
+
     @Override
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
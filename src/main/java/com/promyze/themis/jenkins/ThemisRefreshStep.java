@@ -0,0 +1,188 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.action.ThemisRefreshAction;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Pipeline step that requests the refresh of a Themis project and waits for the refresh to complete.
+ * <p>
+ * To add in a pipeline, use the keyword {@code themisRefreshAndWait}. The step returns a map with the
+ * {@link ThemisRefreshAction#STATUS_KEY status} of the refresh and the
+ * {@link ThemisRefreshAction#DATA_DISPLAYED_KEY data displayed} by Themis:
+ * </p>
+ * <pre>def refresh = themisRefreshAndWait(instanceName: 'Some instance', projectKey: 'key', afterReports: true)</pre>
+ */
+public class ThemisRefreshStep extends Step {
+
+    private final ThemisRefreshAction action;
+
+    /**
+     * Default constructor
+     *
+     * @param instanceName the name of the Themis instance to use, as specified in the Jenkins global configuration
+     * @param projectKey   the unique key of the project to refresh
+     */
+    @DataBoundConstructor
+    public ThemisRefreshStep(String instanceName, String projectKey) {
+        this.action = new ThemisRefreshAction(instanceName, projectKey);
+        this.action.setWaitForCompletion(true);
+    }
+
+    /**
+     * @return the unique key of the project to refresh
+     */
+    public String getProjectKey() {
+        return action.getProjectKey();
+    }
+
+    /**
+     * @return whether the build should fail if there is an error during the refresh
+     */
+    public boolean isFailBuild() {
+        return action.isFailBuild();
+    }
+
+    /**
+     * @param failBuild {@code true} if the build should fail
+     */
+    @DataBoundSetter
+    public void setFailBuild(boolean failBuild) {
+        action.setFailBuild(failBuild);
+    }
+
+    /**
+     * @return whether the refresh is skipped if reports sent to the same instance during the build were not all sent
+     * successfully
+     */
+    public boolean isAfterReports() {
+        return action.isAfterReports();
+    }
+
+    /**
+     * @param afterReports {@code true} if the refresh should only be requested once all the reports sent to the same
+     *                     instance during the build were sent successfully
+     */
+    @DataBoundSetter
+    public void setAfterReports(boolean afterReports) {
+        action.setAfterReports(afterReports);
+    }
+
+    /**
+     * @return the maximum time to wait for the refresh to complete, in seconds
+     */
+    public int getCompletionTimeout() {
+        return action.getCompletionTimeout();
+    }
+
+    /**
+     * @param completionTimeout the maximum time to wait for the refresh to complete, in seconds
+     */
+    @DataBoundSetter
+    public void setCompletionTimeout(int completionTimeout) {
+        action.setCompletionTimeout(completionTimeout);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(context, action);
+    }
+
+    /**
+     * Asynchronous execution: the progress of the refresh is checked periodically, and the step completes when the
+     * refresh completes, without holding a thread in the meantime.
+     */
+    private static class Execution extends StepExecution {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ThemisRefreshAction action;
+        private transient volatile CompletableFuture<Map<String, String>> completion;
+        private transient volatile boolean stopped;
+
+        private Execution(StepContext context, ThemisRefreshAction action) {
+            super(context);
+            this.action = action;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            completion = action.performAsync(run, listener);
+            completion.whenComplete((result, t) -> {
+                if (stopped) {
+                    return;
+                }
+                if (t == null) {
+                    getContext().onSuccess(result);
+                } else {
+                    getContext().onFailure(t instanceof CompletionException && t.getCause() != null
+                                                   ? t.getCause()
+                                                   : t);
+                }
+            });
+            return false;
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            stopped = true;
+            CompletableFuture<Map<String, String>> running = completion;
+            if (running != null) {
+                running.cancel(true);
+            }
+            getContext().onFailure(cause);
+        }
+
+        @Override
+        public void onResume() {
+            // the wait does not survive a restart of Jenkins: the refresh is requested again
+            try {
+                start();
+            } catch (Exception e) {
+                getContext().onFailure(e);
+            }
+        }
+
+    }
+
+    /**
+     * Descriptor for {@link ThemisRefreshStep}.
+     */
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return new HashSet<>(Arrays.asList(Run.class, TaskListener.class));
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "themisRefreshAndWait";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.refreshThemisProjectAndWait();
+        }
+
+    }
+
+}
@@ -53,6 +53,83 @@ public class ThemisReportNotifier extends BaseThemisNotifier<ThemisReportAction>
         reportFiles.forEach(action::addReportFile);
     }
 
+    /**
+     * @return whether report files are sent directly from the node that holds the workspace
+     */
+    public boolean isUploadFromAgent() {
+        return action.isUploadFromAgent();
+    }
+
+    /**
+     * @param uploadFromAgent {@code true} if report files should be sent directly from the node that holds the
+     *                        workspace
+     */
+    @DataBoundSetter
+    public void setUploadFromAgent(boolean uploadFromAgent) {
+        action.setUploadFromAgent(uploadFromAgent);
+    }
+
+    /**
+     * @return whether reports are skipped when identical reports were already sent for the same commit
+     */
+    public boolean isSkipUnchanged() {
+        return action.isSkipUnchanged();
+    }
+
+    /**
+     * @param skipUnchanged {@code true} if reports should not be sent again when identical reports were already sent
+     *                      for the same commit
+     */
+    @DataBoundSetter
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        action.setSkipUnchanged(skipUnchanged);
+    }
+
+    /**
+     * @return whether reports are queued in the outbox and sent in the background
+     */
+    public boolean isUseOutbox() {
+        return action.isUseOutbox();
+    }
+
+    /**
+     * @param useOutbox {@code true} if reports should be queued and sent in the background
+     */
+    @DataBoundSetter
+    public void setUseOutbox(boolean useOutbox) {
+        action.setUseOutbox(useOutbox);
+    }
+
+    /**
+     * @return whether the reports of all types are sent in a single request
+     */
+    public boolean isBatchUpload() {
+        return action.isBatchUpload();
+    }
+
+    /**
+     * @param batchUpload {@code true} if the reports of all types should be sent in a single request
+     */
+    @DataBoundSetter
+    public void setBatchUpload(boolean batchUpload) {
+        action.setBatchUpload(batchUpload);
+    }
+
+    /**
+     * @return whether XML report files are compacted before they are sent
+     */
+    public boolean isCompactReports() {
+        return action.isCompactReports();
+    }
+
+    /**
+     * @param compactReports {@code true} if XML report files should be compacted on the agent before they are sent
+     */
+    @DataBoundSetter
+    public void setCompactReports(boolean compactReports) {
+        action.setCompactReports(compactReports);
+    }
+
     @Override
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
@@ -10,16 +10,19 @@ import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
 import org.jenkinsci.plugins.workflow.steps.StepExecution;
-import org.jenkinsci.plugins.workflow.steps.SynchronousStepExecution;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
+import javax.annotation.Nonnull;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 /**
@@ -89,16 +92,101 @@ public class ThemisReportStep extends Step {
         action.setFailBuild(failBuild);
     }
 
+    /**
+     * @return whether report files are sent directly from the node that holds the workspace
+     */
+    public boolean isUploadFromAgent() {
+        return action.isUploadFromAgent();
+    }
+
+    /**
+     * @param uploadFromAgent {@code true} if report files should be sent directly from the node that holds the
+     *                        workspace
+     */
+    @DataBoundSetter
+    public void setUploadFromAgent(boolean uploadFromAgent) {
+        action.setUploadFromAgent(uploadFromAgent);
+    }
+
+    /**
+     * @return whether reports are skipped when identical reports were already sent for the same commit
+     */
+    public boolean isSkipUnchanged() {
+        return action.isSkipUnchanged();
+    }
+
+    /**
+     * @param skipUnchanged {@code true} if reports should not be sent again when identical reports were already sent
+     *                      for the same commit
+     */
+    @DataBoundSetter
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        action.setSkipUnchanged(skipUnchanged);
+    }
+
+    /**
+     * @return whether reports are queued in the outbox and sent in the background
+     */
+    public boolean isUseOutbox() {
+        return action.isUseOutbox();
+    }
+
+    /**
+     * @param useOutbox {@code true} if reports should be queued and sent in the background
+     */
+    @DataBoundSetter
+    public void setUseOutbox(boolean useOutbox) {
+        action.setUseOutbox(useOutbox);
+    }
+
+    /**
+     * @return whether the reports of all types are sent in a single request
+     */
+    public boolean isBatchUpload() {
+        return action.isBatchUpload();
+    }
+
+    /**
+     * @param batchUpload {@code true} if the reports of all types should be sent in a single request
+     */
+    @DataBoundSetter
+    public void setBatchUpload(boolean batchUpload) {
+        action.setBatchUpload(batchUpload);
+    }
+
+    /**
+     * @return whether XML report files are compacted before they are sent
+     */
+    public boolean isCompactReports() {
+        return action.isCompactReports();
+    }
+
+    /**
+     * @param compactReports {@code true} if XML report files should be compacted on the agent before they are sent
+     */
+    @DataBoundSetter
+    public void setCompactReports(boolean compactReports) {
+        action.setCompactReports(compactReports);
+    }
+
     @Override
     public StepExecution start(StepContext context) throws Exception {
         return new Execution(context, action);
     }
 
-    private static class Execution extends SynchronousStepExecution {
+    /**
+     * Asynchronous execution: the reports are sent by the threads of the {@link UploadExecutor}, and the step completes
+     * when they are all sent, without holding a thread in the meantime.
+     */
+    private static class Execution extends StepExecution {
 
         private static final long serialVersionUID = 1L;
 
         private final ThemisReportAction action;
+        // persisted with the execution, so that the uploads sent again after a restart have the same idempotency keys
+        private final String uploadId = UUID.randomUUID().toString();
+        private transient volatile CompletableFuture<Void> completion;
+        private transient volatile boolean stopped;
 
         private Execution(StepContext context, ThemisReportAction action) {
             super(context);
@@ -106,14 +194,47 @@ public class ThemisReportStep extends Step {
         }
 
         @Override
-        protected Object run() throws Exception {
+        public boolean start() throws Exception {
             action.setEnvVars(getContext().get(EnvVars.class));
             Run<?, ?> run = getContext().get(Run.class);
             FilePath workspace = getContext().get(FilePath.class);
             TaskListener listener = getContext().get(TaskListener.class);
-            action.perform(run, workspace, listener);
-            return null;
+            completion = action.performAsync(run, workspace, listener, uploadId);
+            completion.whenComplete((v, t) -> {
+                if (stopped) {
+                    return;
+                }
+                if (t == null) {
+                    getContext().onSuccess(null);
+                } else {
+                    getContext().onFailure(t instanceof CompletionException && t.getCause() != null
+                                                   ? t.getCause()
+                                                   : t);
+                }
+            });
+            return false;
         }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            stopped = true;
+            CompletableFuture<Void> running = completion;
+            if (running != null) {
+                running.cancel(true);
+            }
+            getContext().onFailure(cause);
+        }
+
+        @Override
+        public void onResume() {
+            // uploads do not survive a restart of Jenkins: they are sent again, and Themis ignores those it received
+            try {
+                start();
+            } catch (Exception e) {
+                getContext().onFailure(e);
+            }
+        }
+
     }
 
     /**
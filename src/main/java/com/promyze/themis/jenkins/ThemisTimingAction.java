@@ -0,0 +1,179 @@
+package com.promyze.themis.jenkins;
+
+import hudson.Functions;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Build action recording the time spent in each phase of the requests sent to Themis instances during the build,
+ * to find out whether a slow publication is due to the workspace, the archive, the transfer or the Themis instance.
+ */
+public class ThemisTimingAction implements RunAction2 {
+
+    private final List<Timing> timings = new ArrayList<>();
+    private transient Run<?, ?> run;
+
+    /**
+     * Records the timing of a request on a build, and in the statistics of the controller.
+     *
+     * @param run    the build
+     * @param timing the timing of the request
+     */
+    public static void record(Run<?, ?> run, Timing timing) {
+        synchronized (ThemisTimingAction.class) {
+            ThemisTimingAction action = run.getAction(ThemisTimingAction.class);
+            if (action == null) {
+                action = new ThemisTimingAction();
+                run.addAction(action);
+            }
+            action.timings.add(timing);
+        }
+        TimingStatistics.get().record(run.getFullDisplayName(), timing);
+    }
+
+    /**
+     * @return the timings of the requests sent during the build
+     */
+    public List<Timing> getTimings() {
+        synchronized (ThemisTimingAction.class) {
+            return Collections.unmodifiableList(new ArrayList<>(timings));
+        }
+    }
+
+    /**
+     * @return the build
+     */
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.themisTimings();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "themisTimings";
+    }
+
+    /**
+     * The time spent in each phase of a request. Durations are in milliseconds, and are -1 for phases that did not
+     * happen or could not be measured.
+     */
+    public static final class Timing {
+
+        private final String instanceName;
+        private final String key;
+        private final long scanTime;
+        private final int files;
+        private final long archiveTime;
+        private final long bytes;
+        private final long firstByteTime;
+        private final long totalTime;
+
+        /**
+         * Default constructor.
+         *
+         * @param instanceName  the name of the Themis instance
+         * @param key           what the request was about, e.g., a report type or a project key
+         * @param scanTime      the time spent looking for the report files in the workspace
+         * @param files         the number of report files found in the workspace
+         * @param archiveTime   the time spent archiving the report files, while they were streamed
+         * @param bytes         the size of the archive, in bytes
+         * @param firstByteTime the time until the first byte of the response was received
+         * @param totalTime     the total time, including all attempts
+         */
+        public Timing(String instanceName, String key, long scanTime, int files, long archiveTime, long bytes,
+                      long firstByteTime, long totalTime) {
+            this.instanceName = instanceName;
+            this.key = key;
+            this.scanTime = scanTime;
+            this.files = files;
+            this.archiveTime = archiveTime;
+            this.bytes = bytes;
+            this.firstByteTime = firstByteTime;
+            this.totalTime = totalTime;
+        }
+
+        public String getInstanceName() {
+            return instanceName;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getScanTime() {
+            return scanTime;
+        }
+
+        /**
+         * @return the number of report files found in the workspace, or 0 if unknown
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        public long getArchiveTime() {
+            return archiveTime;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getFirstByteTime() {
+            return firstByteTime;
+        }
+
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        /**
+         * @return a one-line summary of the phases that happened
+         */
+        public String getSummary() {
+            List<String> phases = new ArrayList<>();
+            if (scanTime >= 0) {
+                phases.add(Messages.timingScan(scanTime));
+            }
+            if (files > 0) {
+                phases.add(Messages.timingFiles(files));
+            }
+            if (archiveTime >= 0) {
+                phases.add(Messages.timingArchive(archiveTime));
+            }
+            if (bytes >= 0) {
+                phases.add(Functions.humanReadableByteSize(bytes));
+            }
+            if (firstByteTime >= 0) {
+                phases.add(Messages.timingFirstByte(firstByteTime));
+            }
+            phases.add(Messages.timingTotal(totalTime));
+            return String.join(", ", phases);
+        }
+
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pauses the requests to a Themis instance that asked for it, from all the builds of the controller.
+ * <p>
+ * A pause is requested by a response throttled with a 429 or 503 status and a {@code Retry-After} header, or by a
+ * response whose rate limit headers ({@code RateLimit-Remaining} and {@code RateLimit-Reset}, or their {@code X-}
+ * variants) show that no request is left until the limit resets. Requests then stay queued in the
+ * {@link UploadExecutor} until the pause ends, up to {@link #MAX_PAUSE}, instead of being sent and throttled again.
+ * </p>
+ */
+public final class Throttle {
+
+    /**
+     * The longest pause honoured, in milliseconds, so that a wrong header does not stop the requests for hours.
+     */
+    public static final long MAX_PAUSE = TimeUnit.MINUTES.toMillis(5);
+
+    static final String RETRY_AFTER = "Retry-After";
+    static final String RATE_LIMIT_REMAINING = "RateLimit-Remaining";
+    static final String RATE_LIMIT_RESET = "RateLimit-Reset";
+
+    // keyed by instance name, see ThemisGlobalConfiguration#setInstances
+    private static final Map<String, Throttle> THROTTLES = new ConcurrentHashMap<>();
+    private static final String LEGACY_PREFIX = "X-";
+    // reset times above this value are epoch seconds rather than a number of seconds
+    private static final long MIN_EPOCH_SECONDS = 1000000000L;
+
+    private long pausedUntil;
+
+    private Throttle() {
+    }
+
+    /**
+     * @param instance the Themis instance
+     * @return the throttle of the instance
+     */
+    public static Throttle get(ThemisInstance instance) {
+        return THROTTLES.computeIfAbsent(instance.getName(), n -> new Throttle());
+    }
+
+    /**
+     * Drops the throttles of the instances that are no longer configured.
+     *
+     * @param names the names of the configured instances
+     */
+    static void retain(Set<String> names) {
+        THROTTLES.keySet().retainAll(names);
+    }
+
+    /**
+     * Reads the pause requested by a response.
+     *
+     * @param response the response of the instance
+     * @return the requested pause in milliseconds, at most {@link #MAX_PAUSE}, or 0 if none was requested
+     */
+    public static long getRequestedPause(HttpResponse response) {
+        int statusCode = response.getStatusLine().getStatusCode();
+        long pause = 0;
+        if (statusCode == 429 || statusCode == 503) {
+            pause = getRetryAfter(response.getFirstHeader(RETRY_AFTER));
+        }
+        if ("0".equals(getValue(response, RATE_LIMIT_REMAINING))) {
+            pause = Math.max(pause, getReset(getValue(response, RATE_LIMIT_RESET)));
+        }
+        return Math.min(pause, MAX_PAUSE);
+    }
+
+    private static String getValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        if (header == null) {
+            header = response.getFirstHeader(LEGACY_PREFIX + name);
+        }
+        return header != null ? header.getValue().trim() : null;
+    }
+
+    /**
+     * @return the delay of a {@code Retry-After} header, either a number of seconds or an HTTP date
+     */
+    private static long getRetryAfter(Header header) {
+        if (header == null) {
+            return 0;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : 0;
+        }
+    }
+
+    /**
+     * @return the delay until a rate limit resets, given either as a number of seconds or as epoch seconds
+     */
+    private static long getReset(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            long seconds = Long.parseLong(value);
+            long delay = seconds >= MIN_EPOCH_SECONDS
+                    ? TimeUnit.SECONDS.toMillis(seconds) - System.currentTimeMillis()
+                    : TimeUnit.SECONDS.toMillis(seconds);
+            return Math.max(0, delay);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Pauses the requests to the instance if the response asks for it.
+     *
+     * @param response the response of the instance
+     * @return the requested pause in milliseconds, or 0 if none was requested
+     */
+    public long onResponse(HttpResponse response) {
+        long pause = getRequestedPause(response);
+        pause(pause);
+        return pause;
+    }
+
+    /**
+     * Pauses the requests to the instance, unless they are already paused for longer.
+     *
+     * @param pause the pause in milliseconds
+     */
+    public synchronized void pause(long pause) {
+        if (pause > 0) {
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + Math.min(pause, MAX_PAUSE));
+        }
+    }
+
+    /**
+     * @return the time left before requests may be sent again, in milliseconds, or 0 if they are not paused
+     */
+    public synchronized long getRemainingPause() {
+        return Math.max(0, pausedUntil - System.currentTimeMillis());
+    }
+
+}
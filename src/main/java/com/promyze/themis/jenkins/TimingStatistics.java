@@ -0,0 +1,164 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.ThemisTimingAction.Timing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates the timings of the requests sent to Themis instances by all the builds since Jenkins started: duration
+ * percentiles per instance, computed on the most recent requests, and the slowest requests with their build.
+ */
+public final class TimingStatistics {
+
+    private static final TimingStatistics INSTANCE = new TimingStatistics();
+    private static final int SAMPLE_SIZE = 1000;
+    private static final int SLOWEST_SIZE = 10;
+
+    private final Map<String, Samples> samples = new TreeMap<>();
+    private final List<SlowRequest> slowest = new ArrayList<>();
+
+    private TimingStatistics() {
+    }
+
+    /**
+     * @return the statistics instance
+     */
+    public static TimingStatistics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records the timing of a request.
+     *
+     * @param buildName the full display name of the build that sent the request
+     * @param timing    the timing of the request
+     */
+    synchronized void record(String buildName, Timing timing) {
+        samples.computeIfAbsent(timing.getInstanceName(), n -> new Samples()).add(timing.getTotalTime());
+        slowest.add(new SlowRequest(buildName, timing));
+        slowest.sort(Comparator.comparingLong((SlowRequest r) -> r.getTiming().getTotalTime()).reversed());
+        if (slowest.size() > SLOWEST_SIZE) {
+            slowest.remove(SLOWEST_SIZE);
+        }
+    }
+
+    /**
+     * @return the duration percentiles of the requests to each instance
+     */
+    public synchronized List<InstanceStatistics> getInstances() {
+        List<InstanceStatistics> statistics = new ArrayList<>();
+        samples.forEach((name, s) -> statistics.add(s.getStatistics(name)));
+        return statistics;
+    }
+
+    /**
+     * @return the slowest requests, slowest first
+     */
+    public synchronized List<SlowRequest> getSlowest() {
+        return new ArrayList<>(slowest);
+    }
+
+    /**
+     * The total durations of the most recent requests to an instance.
+     */
+    private static final class Samples {
+
+        private final long[] values = new long[SAMPLE_SIZE];
+        private long count;
+
+        private void add(long value) {
+            values[(int) (count % SAMPLE_SIZE)] = value;
+            count++;
+        }
+
+        private InstanceStatistics getStatistics(String name) {
+            long[] sorted = Arrays.copyOf(values, (int) Math.min(count, SAMPLE_SIZE));
+            Arrays.sort(sorted);
+            return new InstanceStatistics(name, count, percentile(sorted, 50), percentile(sorted, 90),
+                                          percentile(sorted, 99), sorted[sorted.length - 1]);
+        }
+
+        private static long percentile(long[] sorted, int percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(index, 0)];
+        }
+
+    }
+
+    /**
+     * The duration percentiles of the requests to an instance, in milliseconds.
+     */
+    public static final class InstanceStatistics {
+
+        private final String instanceName;
+        private final long count;
+        private final long median;
+        private final long percentile90;
+        private final long percentile99;
+        private final long max;
+
+        private InstanceStatistics(String instanceName, long count, long median, long percentile90,
+                                   long percentile99, long max) {
+            this.instanceName = instanceName;
+            this.count = count;
+            this.median = median;
+            this.percentile90 = percentile90;
+            this.percentile99 = percentile99;
+            this.max = max;
+        }
+
+        public String getInstanceName() {
+            return instanceName;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMedian() {
+            return median;
+        }
+
+        public long getPercentile90() {
+            return percentile90;
+        }
+
+        public long getPercentile99() {
+            return percentile99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+    }
+
+    /**
+     * A slow request, with the build that sent it.
+     */
+    public static final class SlowRequest {
+
+        private final String buildName;
+        private final Timing timing;
+
+        private SlowRequest(String buildName, Timing timing) {
+            this.buildName = buildName;
+            this.timing = timing;
+        }
+
+        public String getBuildName() {
+            return buildName;
+        }
+
+        public Timing getTiming() {
+            return timing;
+        }
+
+    }
+
+}
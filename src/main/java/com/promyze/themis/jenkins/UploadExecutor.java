@@ -0,0 +1,285 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The executor shared by all the builds for communicating with Themis instances.
+ * <p>
+ * Tasks (i.e., an upload or a refresh request) run on a bounded pool of named threads, and the number of concurrent
+ * tasks is also limited per Themis instance, adapting to its load (see {@link AdaptiveConcurrency}). Tasks that must
+ * run alongside an upload, such as writing the archive that is being uploaded, run on a separate pool: since there is
+ * at most one such task per running upload, this pool is implicitly bounded as well. Tasks delayed before they are
+ * submitted, such as the next attempt of a failed request, wait on a timer rather than on a thread of the pool. While
+ * an instance asked for requests to be paused (see {@link Throttle}), its tasks stay queued until the pause ends.
+ * </p>
+ */
+public final class UploadExecutor {
+
+    public static final int DEFAULT_MAX_THREADS = 10;
+
+    private static final UploadExecutor INSTANCE = new UploadExecutor();
+    private static final long KEEP_ALIVE = 60;
+
+    private final ThreadPoolExecutor tasks;
+    private final ThreadPoolExecutor archivers;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    private UploadExecutor() {
+        tasks = new ThreadPoolExecutor(DEFAULT_MAX_THREADS, DEFAULT_MAX_THREADS, KEEP_ALIVE, TimeUnit.SECONDS,
+                                       new LinkedBlockingQueue<>(),
+                                       new NamingThreadFactory(new DaemonThreadFactory(), "Themis upload"));
+        tasks.allowCoreThreadTimeOut(true);
+        archivers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE, TimeUnit.SECONDS,
+                                           new SynchronousQueue<>(),
+                                           new NamingThreadFactory(new DaemonThreadFactory(), "Themis archiver"));
+        timer = new ScheduledThreadPoolExecutor(1, new NamingThreadFactory(new DaemonThreadFactory(),
+                                                                           "Themis upload timer"));
+        // delayed tasks cancelled with their build are removed rather than kept until their delay elapses
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return the executor instance
+     */
+    public static UploadExecutor get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Submits a task for a Themis instance. The task starts once both the global limit and the limit of the instance
+     * allow it. Cancelling the returned future interrupts the task if it is running.
+     *
+     * @param instance the Themis instance the task communicates with
+     * @param task     the task
+     * @param <T>      the type of the task result
+     * @return a future completed with the result of the task
+     */
+    public <T> CompletableFuture<T> submit(ThemisInstance instance, Callable<T> task) {
+        return submit(instance, ConcurrencyLimiter.DEFAULT_QUEUE, task);
+    }
+
+    /**
+     * Submits a task for a Themis instance, queued with the tasks of the same job. The task starts once both the global
+     * limit and the limit of the instance allow it, the queued tasks of the instance being started in turn for each
+     * job. Cancelling the returned future interrupts the task if it is running.
+     *
+     * @param instance the Themis instance the task communicates with
+     * @param queue    the queue of the task, e.g., the full name of its job
+     * @param task     the task
+     * @param <T>      the type of the task result
+     * @return a future completed with the result of the task
+     */
+    public <T> CompletableFuture<T> submit(ThemisInstance instance, String queue, Callable<T> task) {
+        AdaptiveConcurrency concurrency = AdaptiveConcurrency.get(instance);
+        ConcurrencyLimiter limiter = limiters.computeIfAbsent(instance.getName(),
+                                                              n -> new ConcurrencyLimiter(tasks, Integer.MAX_VALUE));
+        limiter.setLimit(concurrency.getLimit());
+        checkPause(instance, limiter);
+        Task<T> future = new Task<>(task);
+        limiter.submit(queue, () -> {
+            try {
+                future.run();
+            } finally {
+                // the limit adapts to the requests of the task, and may let more tasks start
+                limiter.setLimit(concurrency.getLimit());
+                // the task may have received a response asking for requests to be paused
+                checkPause(instance, limiter);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Pauses the tasks of an instance that asked for requests to be paused, until the pause ends.
+     */
+    private void checkPause(ThemisInstance instance, ConcurrencyLimiter limiter) {
+        long pause = Throttle.get(instance).getRemainingPause();
+        if (pause > 0 && limiter.pause()) {
+            timer.schedule(() -> resume(instance, limiter), pause, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void resume(ThemisInstance instance, ConcurrencyLimiter limiter) {
+        long pause = Throttle.get(instance).getRemainingPause();
+        if (pause > 0) {
+            // the pause was extended by a later response
+            timer.schedule(() -> resume(instance, limiter), pause, TimeUnit.MILLISECONDS);
+        } else {
+            limiter.resume();
+        }
+    }
+
+    /**
+     * Submits a task for a Themis instance after a delay, in the default queue.
+     *
+     * @param instance the Themis instance the task communicates with
+     * @param task     the task
+     * @param delay    the delay before the task is submitted, in milliseconds
+     * @param <T>      the type of the task result
+     * @return a future completed with the result of the task
+     * @see #schedule(ThemisInstance, String, Callable, long)
+     */
+    public <T> CompletableFuture<T> schedule(ThemisInstance instance, Callable<T> task, long delay) {
+        return schedule(instance, ConcurrencyLimiter.DEFAULT_QUEUE, task, delay);
+    }
+
+    /**
+     * Submits a task for a Themis instance after a delay, e.g., the next attempt of a failed request. No thread is held
+     * during the delay. Cancelling the returned future cancels the task, or interrupts it if it is running.
+     *
+     * @param instance the Themis instance the task communicates with
+     * @param queue    the queue of the task, e.g., the full name of its job
+     * @param task     the task
+     * @param delay    the delay before the task is submitted, in milliseconds
+     * @param <T>      the type of the task result
+     * @return a future completed with the result of the task
+     */
+    public <T> CompletableFuture<T> schedule(ThemisInstance instance, String queue, Callable<T> task, long delay) {
+        if (delay <= 0) {
+            return submit(instance, queue, task);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> submission = timer.schedule(() -> {
+            CompletableFuture<T> submitted = submit(instance, queue, task);
+            submitted.whenComplete((r, t) -> {
+                if (t != null) {
+                    result.completeExceptionally(t);
+                } else {
+                    result.complete(r);
+                }
+            });
+            result.whenComplete((r, t) -> {
+                if (result.isCancelled()) {
+                    submitted.cancel(true);
+                }
+            });
+        }, delay, TimeUnit.MILLISECONDS);
+        result.whenComplete((r, t) -> {
+            if (result.isCancelled()) {
+                submission.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Submits a task that must run alongside a running task, e.g., writing the archive that is being uploaded.
+     *
+     * @param task the task
+     * @param <T>  the type of the task result
+     * @return a future completed with the result of the task
+     */
+    public <T> Future<T> submitArchiver(Callable<T> task) {
+        return archivers.submit(task);
+    }
+
+    /**
+     * Changes the maximum number of tasks running concurrently, for all instances.
+     *
+     * @param maxThreads the maximum number of threads
+     */
+    public synchronized void setMaxThreads(int maxThreads) {
+        if (maxThreads > tasks.getMaximumPoolSize()) {
+            tasks.setMaximumPoolSize(maxThreads);
+            tasks.setCorePoolSize(maxThreads);
+        } else {
+            tasks.setCorePoolSize(maxThreads);
+            tasks.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    /**
+     * @return the maximum number of tasks running concurrently
+     */
+    public int getMaxThreads() {
+        return tasks.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the number of threads that are running a task
+     */
+    public int getActiveCount() {
+        return tasks.getActiveCount();
+    }
+
+    /**
+     * @return the number of threads that are writing an archive
+     */
+    public int getActiveArchiverCount() {
+        return archivers.getActiveCount();
+    }
+
+    /**
+     * @return the number of tasks waiting, either for a thread or for the limit of their instance
+     */
+    public int getQueueSize() {
+        return tasks.getQueue().size() + limiters.values().stream().mapToInt(ConcurrencyLimiter::getPending).sum();
+    }
+
+    /**
+     * @return the total number of completed tasks
+     */
+    public long getCompletedCount() {
+        return tasks.getCompletedTaskCount();
+    }
+
+    private static final class Task<T> extends CompletableFuture<T> implements Runnable {
+
+        private final Callable<T> callable;
+        private final Object lock = new Object();
+        private Thread runner;
+
+        private Task(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        @Override
+        public void run() {
+            synchronized (lock) {
+                if (isDone()) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                complete(callable.call());
+            } catch (Exception e) {
+                completeExceptionally(e);
+            } finally {
+                synchronized (lock) {
+                    runner = null;
+                    // clears the interrupted status if the task was cancelled, so that it does not leak to next tasks
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            synchronized (lock) {
+                if (cancelled && mayInterruptIfRunning && runner != null) {
+                    runner.interrupt();
+                }
+            }
+            return cancelled;
+        }
+
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.HttpClientUtils;
+import com.promyze.themis.jenkins.HttpClientUtils.ProxySettings;
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import com.promyze.themis.jenkins.Throttle;
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archives report files and sends them to Themis directly from the node that holds the workspace, so that report
+ * files do not transit through the controller.
+ */
+final class AgentReportUpload extends MasterToSlaveFileCallable<AgentReportUpload.Response> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String url;
+    private final String apiKey;
+    private final String idempotencyKey;
+    private final byte[] metadata;
+    private final ScannedFiles files;
+    private final ArchiveOptions options;
+    private final ProxySettings proxySettings;
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private final long requestTimeout;
+    private final int maxErrorBodySize;
+
+    /**
+     * Default constructor.
+     *
+     * @param url            the URL to send the report to
+     * @param apiKey         the API key of the Themis instance
+     * @param idempotencyKey the key identifying the upload, identical for all its attempts
+     * @param metadata       the report metadata, as UTF-8 encoded JSON
+     * @param files          the report files to archive, found in the workspace
+     * @param compact        whether XML report files are compacted
+     * @param proxySettings  the proxy settings, or {@code null} for direct connections
+     * @param instance       the Themis instance, for its timeouts, compression and error body size
+     * @param requestTimeout the time left to send the report, in seconds, e.g., after previous attempts
+     */
+    AgentReportUpload(String url, String apiKey, String idempotencyKey, byte[] metadata, ScannedFiles files,
+                      boolean compact, ProxySettings proxySettings, ThemisInstance instance, long requestTimeout) {
+        this.url = url;
+        this.apiKey = apiKey;
+        this.idempotencyKey = idempotencyKey;
+        this.metadata = metadata;
+        this.files = files;
+        this.options = ArchiveOptions.of(instance, compact);
+        this.proxySettings = proxySettings;
+        this.connectTimeout = instance.getConnectTimeout();
+        this.socketTimeout = instance.getSocketTimeout();
+        this.requestTimeout = requestTimeout;
+        this.maxErrorBodySize = instance.getMaxErrorBodySize();
+    }
+
+    @Override
+    public Response invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ReportRequests.WorkspaceArchiveBody archive = ReportRequests.archiveBody(new FilePath(workspace), files,
+                                                                                   options);
+        HttpPost request = ReportRequests.newRequest(url, apiKey, idempotencyKey, metadata, archive);
+        try (RequestDeadline deadline = new RequestDeadline(requestTimeout, request::abort);
+             CloseableHttpClient client = HttpClientUtils.newClient(proxySettings, connectTimeout, socketTimeout);
+             CloseableHttpResponse response = client.execute(request)) {
+            long firstByteTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long latency = ReportRequests.getResponseLatency(request, start);
+            return new Response(response.getStatusLine().getStatusCode(),
+                                ResponseBody.read(response, maxErrorBodySize), Throttle.getRequestedPause(response),
+                                archive.getArchiveTime(), archive.getBytes(), firstByteTime, latency);
+        }
+    }
+
+    /**
+     * The status code and body of the Themis response, the pause it requested, and the timings measured on the agent,
+     * including the time Themis took to respond once the request body was sent.
+     */
+    static final class Response implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+        private final ResponseBody body;
+        private final long pause;
+        private final long archiveTime;
+        private final long bytes;
+        private final long firstByteTime;
+        private final long latency;
+
+        private Response(int statusCode, ResponseBody body, long pause, long archiveTime, long bytes,
+                         long firstByteTime, long latency) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.pause = pause;
+            this.archiveTime = archiveTime;
+            this.bytes = bytes;
+            this.firstByteTime = firstByteTime;
+            this.latency = latency;
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        ResponseBody getBody() {
+            return body;
+        }
+
+        /**
+         * @return the pause of the requests to the instance requested by the response, in milliseconds
+         */
+        long getPause() {
+            return pause;
+        }
+
+        long getArchiveTime() {
+            return archiveTime;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        long getFirstByteTime() {
+            return firstByteTime;
+        }
+
+        /**
+         * @return the time Themis took to respond once the request body was sent, in milliseconds
+         */
+        long getLatency() {
+            return latency;
+        }
+
+    }
+
+}
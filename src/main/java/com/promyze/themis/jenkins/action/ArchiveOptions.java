@@ -0,0 +1,64 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+
+import java.io.Serializable;
+import java.util.zip.Deflater;
+
+/**
+ * How report files are archived: whether their XML reports are compacted, the compression level of the archive, and
+ * the number of threads compressing it.
+ */
+final class ArchiveOptions implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean compact;
+    private final int level;
+    private final int threads;
+
+    private ArchiveOptions(boolean compact, int level, int threads) {
+        this.compact = compact;
+        this.level = level;
+        this.threads = threads;
+    }
+
+    /**
+     * @param instance the Themis instance the archive is sent to, for its compression level and threads
+     * @param compact  whether XML report files are compacted
+     * @return the options of archives sent to the instance
+     */
+    static ArchiveOptions of(ThemisInstance instance, boolean compact) {
+        return new ArchiveOptions(compact, instance.getCompressionLevel(), instance.getArchiveThreads());
+    }
+
+    /**
+     * @return whether XML report files are compacted
+     */
+    boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @return the deflate level of the archive
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the maximum number of threads compressing the archive, on the node that holds the workspace
+     */
+    int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return whether the archive is written as Jenkins writes it, without compaction, with the default level and on a
+     * single thread
+     */
+    boolean isDefault() {
+        return !compact && level == Deflater.DEFAULT_COMPRESSION && threads <= 1;
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.promyze.themis.jenkins.action;
+
+import org.apache.http.HttpEntity;
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a few fields of a JSON object while it is received, without building the whole object: the values of other
+ * fields are skipped, and the object is not read further once all the fields are found.
+ */
+final class JsonFields {
+
+    // the characters that end a literal value, e.g., a number or true
+    private static final String LITERAL_END = ",:]}/\\\"[{;=#";
+
+    private JsonFields() {
+    }
+
+    /**
+     * Reads fields of the JSON object of a response body. The body is closed once the fields are read, which reads
+     * the rest of it so that the connection can be reused.
+     *
+     * @param entity the body of the response, or {@code null} if it has none
+     * @param names  the names of the fields
+     * @return the values of the fields found, as {@link org.json.JSONObject#get(String)} would return them
+     * @throws IOException   if the body could not be read
+     * @throws JSONException if the body is not a JSON object
+     */
+    static Map<String, Object> read(HttpEntity entity, String... names) throws IOException {
+        if (entity == null) {
+            return read(new StringReader(""), Arrays.asList(names));
+        }
+        try (InputStream in = entity.getContent()) {
+            return read(new InputStreamReader(in, ResponseBody.getCharset(entity)), Arrays.asList(names));
+        }
+    }
+
+    /**
+     * Reads fields of a JSON object, up to the last of them.
+     *
+     * @param reader the JSON object
+     * @param names  the names of the fields
+     * @return the values of the fields found, as {@link org.json.JSONObject#get(String)} would return them
+     * @throws JSONException if the text is not a JSON object
+     */
+    static Map<String, Object> read(Reader reader, Collection<String> names) {
+        JSONTokener tokener = new JSONTokener(reader);
+        Map<String, Object> fields = new HashMap<>();
+        if (tokener.nextClean() != '{') {
+            throw tokener.syntaxError("A JSONObject text must begin with '{'");
+        }
+        if (tokener.nextClean() == '}') {
+            return fields;
+        }
+        tokener.back();
+        while (true) {
+            char quote = tokener.nextClean();
+            if (quote != '"' && quote != '\'') {
+                throw tokener.syntaxError("Expected a key");
+            }
+            String name = tokener.nextString(quote);
+            if (tokener.nextClean() != ':') {
+                throw tokener.syntaxError("Expected a ':' after a key");
+            }
+            if (names.contains(name) && !fields.containsKey(name)) {
+                fields.put(name, tokener.nextValue());
+                if (fields.size() == names.size()) {
+                    return fields;
+                }
+            } else {
+                skipValue(tokener);
+            }
+            switch (tokener.nextClean()) {
+                case ',':
+                    break;
+                case '}':
+                    return fields;
+                default:
+                    throw tokener.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * Skips a value, counting the nesting of objects and arrays rather than parsing them.
+     */
+    private static void skipValue(JSONTokener tokener) {
+        int depth = 0;
+        do {
+            char c = tokener.nextClean();
+            switch (c) {
+                case 0:
+                    throw tokener.syntaxError("Unterminated value");
+                case '"':
+                case '\'':
+                    tokener.nextString(c);
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 0) {
+                        throw tokener.syntaxError("Missing value");
+                    }
+                    depth--;
+                    break;
+                default:
+                    if (depth == 0) {
+                        skipLiteral(tokener);
+                    }
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    private static void skipLiteral(JSONTokener tokener) {
+        char c = tokener.next();
+        while (c >= ' ' && LITERAL_END.indexOf(c) < 0) {
+            c = tokener.next();
+        }
+        tokener.back();
+    }
+
+}
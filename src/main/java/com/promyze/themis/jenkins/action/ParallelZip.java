@@ -0,0 +1,343 @@
+package com.promyze.themis.jenkins.action;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a zip archive whose entries are compressed in parallel, and written in the order they were added, so that the
+ * archive of the same files is always the same, whatever the number of threads.
+ * <p>
+ * Small entries are compressed in memory by a pool of threads, a few entries ahead of the one being written. Large
+ * entries are compressed while they are written, followed by a data descriptor, so that memory use stays bounded. The
+ * archive does not use the zip64 extensions: it is limited to 65535 entries and 4 GB.
+ * </p>
+ */
+final class ParallelZip implements Closeable {
+
+    static final int MAX_ENTRIES = 0xFFFF;
+    static final long MAX_SIZE = 0xFFFFFFFFL;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int ENTRIES_AHEAD_PER_THREAD = 2;
+    private static final String TOO_LARGE = "The archive is too large, more than " + MAX_ENTRIES + " entries or 4 GB";
+
+    private final CountingOutputStream out;
+    private final int level;
+    private final long inlineSize;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Deque<Future<Entry>> pending = new ArrayDeque<>();
+    private final List<Entry> written = new ArrayList<>();
+    private boolean failed;
+
+    /**
+     * Default constructor.
+     *
+     * @param out        the stream to write the archive to, closed with the archive
+     * @param level      the deflate level of the entries
+     * @param threads    the number of threads compressing entries; entries are compressed by the calling thread if 1
+     * @param inlineSize the size from which entries are compressed while they are written, in bytes
+     */
+    ParallelZip(OutputStream out, int level, int threads, long inlineSize) {
+        this.out = new CountingOutputStream(out);
+        this.level = level;
+        this.inlineSize = inlineSize;
+        this.executor = threads > 1
+                ? Executors.newFixedThreadPool(threads, new NamingThreadFactory(new DaemonThreadFactory(),
+                                                                                "Themis zip"))
+                : null;
+        this.maxPending = threads * ENTRIES_AHEAD_PER_THREAD;
+    }
+
+    /**
+     * Adds an entry to the archive.
+     *
+     * @param name    the name of the entry
+     * @param time    the modification time of the entry
+     * @param size    the expected size of the content, to choose how it is compressed
+     * @param content writes the content of the entry
+     * @throws IOException if the archive could not be written, or an entry could not be compressed
+     */
+    void add(String name, long time, long size, Content content) throws IOException {
+        try {
+            if (size >= inlineSize) {
+                drain(0);
+                writeInline(new Entry(name, time), content);
+            } else if (executor == null) {
+                write(compress(new Entry(name, time), content));
+            } else {
+                drain(maxPending - 1);
+                pending.add(executor.submit(() -> compress(new Entry(name, time), content)));
+            }
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the remaining entries and the central directory of the archive, unless adding an entry failed, and
+     * closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!failed) {
+                drain(0);
+                writeCentralDirectory();
+            }
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the compressed entries, in order, until at most the given number of entries are pending.
+     */
+    private void drain(int maxPending) throws IOException {
+        while (pending.size() > maxPending) {
+            try {
+                write(pending.remove().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException
+                        ? (IOException) e.getCause()
+                        : new IOException(e.getCause());
+            }
+        }
+    }
+
+    private void abort() {
+        failed = true;
+        pending.forEach(f -> f.cancel(true));
+        pending.clear();
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = out.getByteCount();
+        for (Entry entry : written) {
+            writeCentralHeader(entry);
+        }
+        long end = out.getByteCount();
+        if (end > MAX_SIZE) {
+            throw new IOException(TOO_LARGE);
+        }
+        writeInt(END_SIGNATURE);
+        // disk numbers
+        writeShort(0);
+        writeShort(0);
+        writeShort(written.size());
+        writeShort(written.size());
+        writeInt(end - start);
+        writeInt(start);
+        // comment length
+        writeShort(0);
+    }
+
+    private Entry compress(Entry entry, Content content) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(level, true);
+        CRC32 crc = new CRC32();
+        try {
+            try (CheckedOutputStream checked = new CheckedOutputStream(new DeflaterOutputStream(buffer, deflater),
+                                                                       crc)) {
+                content.writeTo(checked);
+            }
+            entry.size = deflater.getBytesRead();
+        } finally {
+            deflater.end();
+        }
+        entry.data = buffer.toByteArray();
+        entry.crc = crc.getValue();
+        entry.compressedSize = entry.data.length;
+        checkSize(entry);
+        return entry;
+    }
+
+    private void write(Entry entry) throws IOException {
+        writeLocalHeader(entry);
+        out.write(entry.data);
+        // the data is not needed anymore, but the entry is kept for the central directory
+        entry.data = null;
+    }
+
+    private void writeInline(Entry entry, Content content) throws IOException {
+        entry.flags |= FLAG_DATA_DESCRIPTOR;
+        writeLocalHeader(entry);
+        long start = out.getByteCount();
+        Deflater deflater = new Deflater(level, true);
+        CRC32 crc = new CRC32();
+        try {
+            // the archive has more to write after this entry
+            DeflaterOutputStream deflating = new DeflaterOutputStream(new CloseShieldOutputStream(out), deflater);
+            try (CheckedOutputStream checked = new CheckedOutputStream(deflating, crc)) {
+                content.writeTo(checked);
+            }
+            entry.size = deflater.getBytesRead();
+        } finally {
+            deflater.end();
+        }
+        entry.crc = crc.getValue();
+        entry.compressedSize = out.getByteCount() - start;
+        // the size of the content is only known once it is written
+        checkSize(entry);
+        writeInt(DATA_DESCRIPTOR_SIGNATURE);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        checkLimits(entry);
+        entry.offset = out.getByteCount();
+        boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+        writeInt(LOCAL_HEADER_SIGNATURE);
+        writeShort(VERSION);
+        writeShort(entry.flags);
+        writeShort(METHOD_DEFLATED);
+        writeInt(entry.dosTime);
+        writeInt(descriptor ? 0 : entry.crc);
+        writeInt(descriptor ? 0 : entry.compressedSize);
+        writeInt(descriptor ? 0 : entry.size);
+        writeShort(entry.name.length);
+        writeShort(0);
+        out.write(entry.name);
+        written.add(entry);
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        writeInt(CENTRAL_HEADER_SIGNATURE);
+        writeShort(VERSION);
+        writeShort(VERSION);
+        writeShort(entry.flags);
+        writeShort(METHOD_DEFLATED);
+        writeInt(entry.dosTime);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        writeShort(entry.name.length);
+        // extra field, comment, disk number, internal and external attributes
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(0);
+        writeInt(entry.offset);
+        out.write(entry.name);
+    }
+
+    private void checkLimits(Entry entry) throws IOException {
+        if (written.size() >= MAX_ENTRIES || out.getByteCount() + entry.compressedSize > MAX_SIZE) {
+            throw new IOException(TOO_LARGE);
+        }
+    }
+
+    private static void checkSize(Entry entry) throws IOException {
+        // the sizes are written on 4 bytes, and would be truncated
+        if (entry.size > MAX_SIZE || entry.compressedSize > MAX_SIZE) {
+            throw new IOException(TOO_LARGE);
+        }
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xFFFF));
+        writeShort((int) ((value >>> 16) & 0xFFFF));
+    }
+
+    /**
+     * @return the modification time in the MS-DOS format of zip entries, in the local time zone like
+     * {@link java.util.zip.ZipOutputStream}
+     */
+    private static long toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * Writes the content of an entry.
+     */
+    @FunctionalInterface
+    interface Content {
+
+        /**
+         * @param out the stream to write the content to, closed once the content is written
+         * @throws IOException if the content could not be written
+         */
+        void writeTo(OutputStream out) throws IOException;
+
+    }
+
+    /**
+     * An entry of the archive, with the data compressed ahead of writing it.
+     */
+    private static final class Entry {
+
+        private final byte[] name;
+        private final long dosTime;
+        private int flags = FLAG_UTF8;
+        private byte[] data;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private long offset;
+
+        private Entry(String name, long time) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.dosTime = toDosTime(time);
+        }
+
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import com.promyze.themis.jenkins.UploadExecutor;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * The tasks publishing the data of a build to a Themis instance, e.g., the attempts to send its reports. The tasks run
+ * on the {@link UploadExecutor}, one after another or delayed before attempting a request again, and are cancelled
+ * together when the build is aborted.
+ */
+final class Publication {
+
+    private final ThemisInstance instance;
+    private final String queue;
+    // the tasks that are submitted or delayed, and not completed yet
+    private final Set<Future<?>> tasks = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    /**
+     * Default constructor.
+     *
+     * @param instance the Themis instance the data is published to
+     * @param queue    the queue of the tasks, e.g., the full name of the job
+     */
+    Publication(ThemisInstance instance, String queue) {
+        this.instance = instance;
+        this.queue = queue;
+    }
+
+    /**
+     * @return the Themis instance the data is published to
+     */
+    ThemisInstance getInstance() {
+        return instance;
+    }
+
+    /**
+     * Submits a task, which may continue with other tasks of the publication.
+     *
+     * @param task the task, returning a future completed once the tasks it continues with complete
+     * @param <T>  the type of the task result
+     * @return a future completed with the result of the task
+     */
+    <T> CompletableFuture<T> submit(Callable<CompletableFuture<T>> task) {
+        return schedule(task, 0);
+    }
+
+    /**
+     * Submits a task after a delay, without holding a thread of the executor while waiting.
+     *
+     * @param task  the task, returning a future completed once the tasks it continues with complete
+     * @param delay the delay before the task is submitted, in milliseconds
+     * @param <T>   the type of the task result
+     * @return a future completed with the result of the task
+     */
+    <T> CompletableFuture<T> schedule(Callable<CompletableFuture<T>> task, long delay) {
+        CompletableFuture<CompletableFuture<T>> submitted = UploadExecutor.get().schedule(instance, queue, task, delay);
+        tasks.add(submitted);
+        submitted.whenComplete((r, t) -> tasks.remove(submitted));
+        if (cancelled) {
+            submitted.cancel(true);
+        }
+        return submitted.thenCompose(Function.identity());
+    }
+
+    /**
+     * @return whether the publication was cancelled, in which case its results are no longer reported to the build
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Cancels the tasks of the publication, interrupting those that are running, and those submitted afterwards.
+     */
+    void cancel() {
+        cancelled = true;
+        tasks.forEach(t -> t.cancel(true));
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import com.promyze.themis.jenkins.UploadExecutor;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Merges the refresh requests for the same project of a Themis instance, so that builds finishing together trigger a
+ * single refresh. The first request for a project opens a window, as long as the debounce delay of the instance; the
+ * requests made during the window share the refresh sent when it closes. Requests made while that refresh is running
+ * open a new window, since they may follow new reports.
+ */
+final class RefreshCoordinator {
+
+    private static final RefreshCoordinator INSTANCE = new RefreshCoordinator();
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "Themis refresh coordinator"));
+
+    private final Map<List<String>, CompletableFuture<?>> pending = new HashMap<>();
+
+    private RefreshCoordinator() {
+    }
+
+    /**
+     * @return the coordinator instance
+     */
+    static RefreshCoordinator get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Requests the refresh of a project, joining the pending refresh of the project if there is one.
+     *
+     * @param instance   the Themis instance
+     * @param projectKey the unique key of the project to refresh
+     * @param refresh    sends the refresh request on the {@link UploadExecutor}, if there is no pending refresh to join
+     * @param <T>        the type of the refresh result
+     * @return a future completed with the result of the shared refresh
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> refresh(ThemisInstance instance, String projectKey,
+                                     Supplier<CompletableFuture<T>> refresh) {
+        List<String> key = Arrays.asList(instance.getName(), projectKey);
+        synchronized (pending) {
+            CompletableFuture<T> joined = (CompletableFuture<T>) pending.get(key);
+            if (joined != null) {
+                return joined;
+            }
+            CompletableFuture<T> result = new CompletableFuture<>();
+            pending.put(key, result);
+            SCHEDULER.schedule(() -> {
+                synchronized (pending) {
+                    pending.remove(key, result);
+                }
+                refresh.get().whenComplete((r, t) -> {
+                    if (t != null) {
+                        result.completeExceptionally(t);
+                    } else {
+                        result.complete(r);
+                    }
+                });
+            }, instance.getRefreshDebounce(), TimeUnit.SECONDS);
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.promyze.themis.jenkins.action;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the zip archives of report files, wherever they are sent from. Report files are archived by
+ * {@link FilePath#zip(OutputStream, hudson.util.DirScanner)} with the default options, or otherwise on the node that
+ * holds the workspace, compressed in parallel by {@link ParallelZip}, with their XML reports compacted by
+ * {@link ReportCompactor}, so that only compacted reports transit through the channel.
+ */
+final class ReportArchiver {
+
+    private static final long INLINE_SIZE = 16 * 1024 * 1024;
+    // leaves room for the headers and for reports that do not compress
+    private static final long MAX_PARALLEL_SIZE = ParallelZip.MAX_SIZE / 2;
+
+    private ReportArchiver() {
+        // private constructor for utility class
+    }
+
+    /**
+     * Writes the archive of report files, and closes the stream.
+     *
+     * @param workspace the workspace containing the report files
+     * @param out       the stream to write the archive to
+     * @param files     the report files, found in the workspace
+     * @param options   how the report files are archived
+     * @throws IOException          if the archive could not be written
+     * @throws InterruptedException if interrupted while archiving
+     */
+    static void zip(FilePath workspace, OutputStream out, ScannedFiles files, ArchiveOptions options)
+            throws IOException, InterruptedException {
+        if (options.isDefault()) {
+            workspace.zip(out, files.toScanner());
+            return;
+        }
+        // like FilePath#zip, the stream is exported to the node that holds the workspace
+        workspace.act(new Archive(files, options, workspace.isRemote() ? new RemoteOutputStream(out) : out));
+    }
+
+    /**
+     * Archives report files with the given options, on the node that holds the workspace.
+     */
+    private static final class Archive extends MasterToSlaveFileCallable<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ScannedFiles files;
+        private final ArchiveOptions options;
+        private final OutputStream out;
+
+        private Archive(ScannedFiles files, ArchiveOptions options, OutputStream out) {
+            this.files = files;
+            this.options = options;
+            this.out = out;
+        }
+
+        @Override
+        public Integer invoke(File workspace, VirtualChannel channel) throws IOException {
+            List<ScannedFiles.Entry> entries = files.getEntries();
+            if (entries.size() <= ParallelZip.MAX_ENTRIES && files.getTotalSize() <= MAX_PARALLEL_SIZE) {
+                zipInParallel(workspace, entries);
+            } else {
+                zip(workspace, entries);
+            }
+            return entries.size();
+        }
+
+        private void zipInParallel(File workspace, List<ScannedFiles.Entry> entries) throws IOException {
+            int threads = Math.min(options.getThreads(), Runtime.getRuntime().availableProcessors());
+            try (ParallelZip zip = new ParallelZip(new BufferedOutputStream(out), options.getLevel(), threads,
+                                                   INLINE_SIZE)) {
+                for (ScannedFiles.Entry entry : entries) {
+                    String path = entry.getPath();
+                    File file = new File(workspace, path);
+                    zip.add(getName(path), entry.getLastModified(), entry.getSize(), o -> copy(file, path, o));
+                }
+            }
+        }
+
+        /**
+         * Archives the report files on a single thread, for archives larger than those of {@link ParallelZip}.
+         */
+        private void zip(File workspace, List<ScannedFiles.Entry> entries) throws IOException {
+            try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out))) {
+                zip.setLevel(options.getLevel());
+                for (ScannedFiles.Entry scanned : entries) {
+                    String path = scanned.getPath();
+                    ZipEntry entry = new ZipEntry(getName(path));
+                    entry.setTime(scanned.getLastModified());
+                    zip.putNextEntry(entry);
+                    copy(new File(workspace, path), path, zip);
+                    zip.closeEntry();
+                }
+            }
+        }
+
+        private void copy(File file, String path, OutputStream target) throws IOException {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                if (options.isCompact() && ReportCompactor.isCompactable(path)) {
+                    ReportCompactor.compact(in, target, path);
+                } else {
+                    Util.copyStream(in, target);
+                }
+            }
+        }
+
+        private static String getName(String path) {
+            return path.replace(File.separatorChar, '/');
+        }
+
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.promyze.themis.jenkins.action;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Compacts XML report files (Cobertura, Jacoco, PMD, Checkstyle, etc.) while streaming through them: the whitespace
+ * between elements, comments and processing instructions are dropped, elements without content are written as empty
+ * elements, and the report is written in UTF-8. Elements, attributes, text and the document type are kept as they are,
+ * so that Themis reads the same report.
+ */
+final class ReportCompactor {
+
+    private static final String XML_EXTENSION = ".xml";
+    private static final String ENCODING = StandardCharsets.UTF_8.name();
+    private static final String DEFAULT_VERSION = "1.0";
+
+    private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private ReportCompactor() {
+        // private constructor for utility class
+    }
+
+    /**
+     * @param path the path of a report file
+     * @return whether the report file is an XML file that can be compacted
+     */
+    static boolean isCompactable(String path) {
+        return path.toLowerCase(Locale.ENGLISH).endsWith(XML_EXTENSION);
+    }
+
+    /**
+     * Writes a compacted copy of an XML report.
+     *
+     * @param in   the report
+     * @param out  the stream to write the compacted report to, which is left open
+     * @param name the name of the report, for error messages
+     * @throws IOException if the report could not be read or written, or is not well-formed XML
+     */
+    static void compact(InputStream in, OutputStream out, String name) throws IOException {
+        XMLEventReader reader = null;
+        XMLStreamWriter writer = null;
+        try {
+            reader = INPUT_FACTORY.createXMLEventReader(in);
+            writer = OUTPUT_FACTORY.createXMLStreamWriter(out, ENCODING);
+            while (reader.hasNext()) {
+                write(reader, reader.nextEvent(), writer);
+            }
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not compact report " + name + ": " + e.getMessage(), e);
+        } finally {
+            close(reader, writer);
+        }
+    }
+
+    private static void write(XMLEventReader reader, XMLEvent event, XMLStreamWriter writer)
+            throws XMLStreamException {
+        switch (event.getEventType()) {
+            case XMLEvent.START_DOCUMENT:
+                // the report is written in UTF-8, whatever its original encoding
+                String version = ((StartDocument) event).getVersion();
+                writer.writeStartDocument(ENCODING, version != null ? version : DEFAULT_VERSION);
+                break;
+            case XMLEvent.DTD:
+                writer.writeDTD(((DTD) event).getDocumentTypeDeclaration());
+                break;
+            case XMLEvent.START_ELEMENT:
+                writeStartElement(reader, event.asStartElement(), writer);
+                break;
+            case XMLEvent.END_ELEMENT:
+                writer.writeEndElement();
+                break;
+            case XMLEvent.CHARACTERS:
+            case XMLEvent.CDATA:
+                if (!isDropped(event)) {
+                    writer.writeCharacters(event.asCharacters().getData());
+                }
+                break;
+            case XMLEvent.ENTITY_REFERENCE:
+                writer.writeEntityRef(((EntityReference) event).getName());
+                break;
+            case XMLEvent.END_DOCUMENT:
+                writer.writeEndDocument();
+                break;
+            default:
+                // comments, processing instructions and ignorable whitespace
+                break;
+        }
+    }
+
+    private static void writeStartElement(XMLEventReader reader, StartElement element, XMLStreamWriter writer)
+            throws XMLStreamException {
+        while (reader.hasNext() && isDropped(reader.peek())) {
+            reader.nextEvent();
+        }
+        QName name = element.getName();
+        // elements without content are written as empty elements, e.g., the lines of coverage reports
+        if (reader.hasNext() && reader.peek().isEndElement()) {
+            reader.nextEvent();
+            writer.writeEmptyElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+        } else {
+            writer.writeStartElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+        }
+        for (Iterator<?> namespaces = element.getNamespaces(); namespaces.hasNext(); ) {
+            Namespace namespace = (Namespace) namespaces.next();
+            writer.writeNamespace(namespace.getPrefix(), namespace.getNamespaceURI());
+        }
+        for (Iterator<?> attributes = element.getAttributes(); attributes.hasNext(); ) {
+            Attribute attribute = (Attribute) attributes.next();
+            QName attributeName = attribute.getName();
+            writer.writeAttribute(attributeName.getPrefix(), attributeName.getNamespaceURI(),
+                                  attributeName.getLocalPart(), attribute.getValue());
+        }
+    }
+
+    private static boolean isDropped(XMLEvent event) {
+        switch (event.getEventType()) {
+            case XMLEvent.COMMENT:
+            case XMLEvent.PROCESSING_INSTRUCTION:
+            case XMLEvent.SPACE:
+                return true;
+            case XMLEvent.CHARACTERS:
+                return event.asCharacters().isWhiteSpace();
+            default:
+                return false;
+        }
+    }
+
+    private static void close(XMLEventReader reader, XMLStreamWriter writer) throws IOException {
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+            if (writer != null) {
+                // does not close the underlying stream
+                writer.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // the document type is kept, but neither it nor external entities are loaded
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.promyze.themis.jenkins.action;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes a digest of the report files found by a {@link ReportScan}, on the node that holds the workspace. The
+ * digest covers the relative path and the content of each file, in a deterministic order.
+ */
+final class ReportDigest extends MasterToSlaveFileCallable<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ScannedFiles files;
+
+    /**
+     * Default constructor.
+     *
+     * @param files the report files, found in the workspace
+     */
+    ReportDigest(ScannedFiles files) {
+        this.files = files;
+    }
+
+    @Override
+    public String invoke(File workspace, VirtualChannel channel) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (ScannedFiles.Entry entry : files.getEntries()) {
+            String path = entry.getPath();
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            try (InputStream in = new DigestInputStream(Files.newInputStream(new File(workspace, path).toPath()),
+                                                        digest)) {
+                while (in.read(buffer) != -1) {
+                    // the digest is updated while reading
+                }
+            }
+            digest.update((byte) 0);
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+}
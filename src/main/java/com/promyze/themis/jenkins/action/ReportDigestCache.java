@@ -0,0 +1,62 @@
+package com.promyze.themis.jenkins.action;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the digests of the last reports successfully sent, to avoid sending the same reports again. The cache is
+ * bounded: the least recently used entries are evicted first.
+ */
+final class ReportDigestCache {
+
+    private static final int MAX_ENTRIES = 1000;
+
+    private static final Map<String, String> DIGESTS = new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+
+    };
+
+    private ReportDigestCache() {
+        // private constructor for utility class
+    }
+
+    /**
+     * @param key    the key identifying the reports (i.e., instance, source, type and commit)
+     * @param digest the digest of the report files
+     * @return whether reports with the same key and digest were already sent
+     */
+    static boolean isSent(String key, String digest) {
+        synchronized (DIGESTS) {
+            return digest.equals(DIGESTS.get(key));
+        }
+    }
+
+    /**
+     * Records that reports were sent.
+     *
+     * @param key    the key identifying the reports (i.e., instance, source, type and commit)
+     * @param digest the digest of the report files
+     */
+    static void sent(String key, String digest) {
+        synchronized (DIGESTS) {
+            DIGESTS.put(key, digest);
+        }
+    }
+
+    static void clear() {
+        synchronized (DIGESTS) {
+            DIGESTS.clear();
+        }
+    }
+
+    static String key(String instanceName, String sourceKey, String type, String commit) {
+        return String.join("\u0000", instanceName, sourceKey, type, commit);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.promyze.themis.jenkins.action;
+
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The metadata of the reports of a build, serialized once. The metadata of each report type is the serialized metadata
+ * of the build, with the type spliced in before the closing brace, rather than a copy of the metadata serialized again.
+ */
+final class ReportMetadata {
+
+    private final JSONObject build;
+    private final String typeAttribute;
+    // the serialized metadata of the build, without its closing brace
+    private final byte[] prefix;
+
+    /**
+     * Default constructor.
+     *
+     * @param build         the metadata of the build, that must not be modified afterwards
+     * @param typeAttribute the name of the attribute holding the report type
+     */
+    ReportMetadata(JSONObject build, String typeAttribute) {
+        this.build = build;
+        this.typeAttribute = typeAttribute;
+        String json = build.toString();
+        // the separator of the type attribute, unless the metadata is empty
+        String open = json.substring(0, json.length() - 1) + (build.length() > 0 ? "," : "");
+        this.prefix = open.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param name the name of an attribute
+     * @return the value of the attribute in the metadata of the build, or {@code null} if missing
+     */
+    String get(String name) {
+        return build.optString(name, null);
+    }
+
+    /**
+     * @param type the report type
+     * @return the metadata of the reports of the type, as UTF-8 encoded JSON
+     */
+    byte[] forType(String type) {
+        byte[] attribute = (JSONObject.quote(typeAttribute) + ":" + JSONObject.quote(type) + "}")
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] metadata = Arrays.copyOf(prefix, prefix.length + attribute.length);
+        System.arraycopy(attribute, 0, metadata, prefix.length, attribute.length);
+        return metadata;
+    }
+
+    /**
+     * @return a copy of the metadata of the build, e.g., to describe several reports in a single request
+     */
+    JSONObject copy() {
+        return new JSONObject(build, JSONObject.getNames(build));
+    }
+
+}
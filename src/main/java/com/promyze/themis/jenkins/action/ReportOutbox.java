@@ -0,0 +1,521 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.CircuitBreaker;
+import com.promyze.themis.jenkins.HttpClientUtils;
+import com.promyze.themis.jenkins.Messages;
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration;
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import com.promyze.themis.jenkins.Throttle;
+import com.promyze.themis.jenkins.UploadExecutor;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * A durable queue of report archives waiting to be sent to Themis. Archives and their metadata are stored in the
+ * {@code themis-outbox} directory of the Jenkins home, and sent in the background by {@link Drainer}, with an
+ * exponential backoff when Themis is unavailable. The queue survives restarts of Jenkins.
+ * <p>
+ * Deliveries run on the {@link UploadExecutor}, within the limits of their instance, and a report is never delivered
+ * twice at the same time: a refresh waiting for the reports queued by its build shares the deliveries in progress.
+ * </p>
+ */
+public final class ReportOutbox {
+
+    private static final Logger LOGGER = Logger.getLogger(ReportOutbox.class.getName());
+
+    private static final ReportOutbox INSTANCE = new ReportOutbox();
+
+    private static final String DIRECTORY = "themis-outbox";
+    private static final String ARCHIVE_EXTENSION = ".zip";
+    private static final String ENTRY_EXTENSION = ".json";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final long MIN_BACKOFF = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_BACKOFF = TimeUnit.HOURS.toMillis(1);
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    private static final long RATE_WINDOW = TimeUnit.HOURS.toMillis(1);
+    private static final int MAX_DROPPED_IDS = 1000;
+    // temporary entry files older than this were left by a crash while saving an entry
+    private static final long LOADED_AT = System.currentTimeMillis();
+
+    private final Deque<Long> deliveries = new ArrayDeque<>();
+    // the deliveries in progress, by entry id
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    // the ids of the last dropped entries, to tell them from the delivered ones once their files are deleted
+    private final Set<String> droppedIds = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_DROPPED_IDS;
+        }
+
+    });
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private ReportOutbox() {
+    }
+
+    /**
+     * @return the outbox instance
+     */
+    public static ReportOutbox get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Archives report files into the outbox.
+     *
+     * @param instance  the Themis instance to send the reports to
+     * @param id        the id of the queued reports, also the idempotency key of their delivery
+     * @param sourceKey the unique key of the source
+     * @param metadata  the report metadata, as JSON
+     * @param workspace the workspace containing the report files
+     * @param files     the report files, found in the workspace
+     * @param compact   whether XML report files are compacted
+     * @param digestKey the key of the digest of the reports, or {@code null} if unchanged reports are not skipped
+     * @param digest    the digest of the reports, recorded once they are delivered, or {@code null}
+     * @return the id of the queued reports, or {@code null} if the outbox is full
+     * @throws IOException          if the archive could not be written
+     * @throws InterruptedException if interrupted while archiving
+     */
+    String offer(ThemisInstance instance, String id, String sourceKey, String metadata, FilePath workspace,
+                 ScannedFiles files, boolean compact, String digestKey, String digest)
+            throws IOException, InterruptedException {
+        File directory = getDirectory();
+        if (new File(directory, id + ENTRY_EXTENSION).exists()) {
+            // already queued, e.g., by a step performed again after a restart of Jenkins
+            return id;
+        }
+        if (getBytes() >= getMaxBytes()) {
+            return null;
+        }
+        Files.createDirectories(directory.toPath());
+        File archive = new File(directory, id + ARCHIVE_EXTENSION);
+        try (OutputStream outputStream = new FileOutputStream(archive)) {
+            ReportArchiver.zip(workspace, outputStream, files, ArchiveOptions.of(instance, compact));
+        } catch (IOException | InterruptedException e) {
+            Files.deleteIfExists(archive.toPath());
+            throw e;
+        }
+        Entry entry = new Entry(id, instance.getName(), sourceKey, metadata, System.currentTimeMillis());
+        entry.digestKey = digestKey;
+        entry.digest = digest;
+        entry.save(directory);
+        return id;
+    }
+
+    /**
+     * @return the number of queued reports
+     */
+    public int getSize() {
+        return listEntries().length;
+    }
+
+    /**
+     * @return the total size of the queued archives, in bytes
+     */
+    public long getBytes() {
+        File[] archives = getDirectory().listFiles((d, n) -> n.endsWith(ARCHIVE_EXTENSION));
+        return archives == null ? 0 : Arrays.stream(archives).mapToLong(File::length).sum();
+    }
+
+    /**
+     * @return the age of the oldest queued report, or an empty string if the outbox is empty
+     */
+    public String getOldestAge() {
+        List<Entry> entries = loadEntries();
+        return entries.isEmpty() ? "" : Util.getTimeSpanString(System.currentTimeMillis() - entries.get(0).createdAt);
+    }
+
+    /**
+     * @return the number of reports delivered during the last hour
+     */
+    public synchronized int getDeliveredLastHour() {
+        pruneDeliveries(System.currentTimeMillis());
+        return deliveries.size();
+    }
+
+    /**
+     * @return the number of reports delivered since Jenkins started
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of reports dropped since Jenkins started, because they were rejected by Themis or too old
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Sends the queued reports whose next attempt is due, and waits for their delivery.
+     *
+     * @param listener the listener to send the output to
+     */
+    void drain(TaskListener listener) {
+        long now = System.currentTimeMillis();
+        List<CompletableFuture<Boolean>> deliveries = new ArrayList<>();
+        for (Entry entry : loadEntries()) {
+            if (entry.nextAttempt <= now) {
+                deliveries.add(submit(entry, listener));
+            }
+        }
+        // the deliveries run on the upload executor, and are waited for so that this run of the drainer logs them
+        for (CompletableFuture<Boolean> delivery : deliveries) {
+            try {
+                delivery.join();
+            } catch (CompletionException | CancellationException e) {
+                LOGGER.log(Level.WARNING, "Could not deliver queued report", e);
+            }
+        }
+        deleteLeftovers(now);
+    }
+
+    /**
+     * Sends some queued reports now, unless they are already being sent, e.g., before refreshing the project they
+     * belong to.
+     *
+     * @param ids      the ids of the queued reports, as returned by {@link #offer}
+     * @param listener the listener to send the output to
+     * @return a future completed with {@code true} if all the reports were delivered, {@code false} if some of them
+     * could not be delivered yet or were dropped
+     */
+    CompletableFuture<Boolean> deliver(List<String> ids, TaskListener listener) {
+        List<CompletableFuture<Boolean>> deliveries = ids.stream()
+                .map(id -> deliver(id, listener).exceptionally(t -> false))
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> deliveries.stream().allMatch(CompletableFuture::join));
+    }
+
+    private CompletableFuture<Boolean> deliver(String id, TaskListener listener) {
+        CompletableFuture<Boolean> delivery = inFlight.get(id);
+        if (delivery != null) {
+            return delivery;
+        }
+        File file = new File(getDirectory(), id + ENTRY_EXTENSION);
+        if (!file.exists()) {
+            return CompletableFuture.completedFuture(!isDropped(id));
+        }
+        try {
+            return submit(Entry.load(file), listener);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not read outbox entry " + file, e);
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /**
+     * Submits the delivery of a queued report to the upload executor, unless it is already being delivered.
+     *
+     * @return a future completed with whether the report was delivered
+     */
+    private CompletableFuture<Boolean> submit(Entry entry, TaskListener listener) {
+        ThemisInstance instance = GlobalConfiguration.all().get(ThemisGlobalConfiguration.class)
+                .getInstance(entry.instanceName);
+        if (instance == null) {
+            drop(entry, Messages.outboxUnknownInstance(entry.instanceName), listener);
+            return CompletableFuture.completedFuture(false);
+        }
+        if (System.currentTimeMillis() - entry.createdAt > MAX_AGE) {
+            drop(entry, Messages.outboxTooOld(), listener);
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Boolean> delivery = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inFlight.putIfAbsent(entry.id, delivery);
+        if (existing != null) {
+            return existing;
+        }
+        UploadExecutor.get().submit(instance, () -> deliver(instance, entry, listener)).whenComplete((r, t) -> {
+            inFlight.remove(entry.id, delivery);
+            if (t != null) {
+                delivery.completeExceptionally(t);
+            } else {
+                delivery.complete(r);
+            }
+        });
+        return delivery;
+    }
+
+    private void deleteLeftovers(long now) {
+        File directory = getDirectory();
+        // archives without entry are left by builds interrupted while archiving
+        File[] archives = directory.listFiles((d, n) -> n.endsWith(ARCHIVE_EXTENSION));
+        for (File archive : archives == null ? new File[0] : archives) {
+            String id = archive.getName().substring(0, archive.getName().length() - ARCHIVE_EXTENSION.length());
+            if (!new File(directory, id + ENTRY_EXTENSION).exists() && now - archive.lastModified() > MAX_BACKOFF) {
+                deleteLeftover(archive);
+            }
+        }
+        // temporary entry files are left by a crash while saving an entry, before the outbox was loaded
+        File[] temporaries = directory.listFiles((d, n) -> n.endsWith(ENTRY_EXTENSION + TEMPORARY_EXTENSION));
+        for (File temporary : temporaries == null ? new File[0] : temporaries) {
+            if (temporary.lastModified() < LOADED_AT) {
+                deleteLeftover(temporary);
+            }
+        }
+    }
+
+    private void deleteLeftover(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not delete outbox leftover " + file, e);
+        }
+    }
+
+    /**
+     * @return whether the report was delivered
+     */
+    private boolean deliver(ThemisInstance instance, Entry entry, TaskListener listener) {
+        File directory = getDirectory();
+        if (!new File(directory, entry.id + ENTRY_EXTENSION).exists()) {
+            // delivered or dropped since the entry was loaded
+            return !isDropped(entry.id);
+        }
+        Throttle throttle = Throttle.get(instance);
+        CircuitBreaker breaker = CircuitBreaker.get(instance);
+        if (throttle.getRemainingPause() > 0 || !breaker.tryAcquire()) {
+            // not an attempt: the report is sent once the instance is available again
+            return false;
+        }
+        HttpPost request = ReportRequests.newRequest(instance.getEndpoints().getReportUrl(entry.sourceKey),
+                                                     instance.getApiKey(), entry.id,
+                                                     entry.metadata.getBytes(StandardCharsets.UTF_8),
+                                                     ReportRequests.archiveBody(entry.getArchive(directory)));
+        try (RequestDeadline deadline = new RequestDeadline(instance.getRequestTimeout(), request::abort);
+             CloseableHttpResponse response = HttpClientUtils.getClient(instance).execute(request)) {
+            throttle.onResponse(response);
+            int statusCode = response.getStatusLine().getStatusCode();
+            ResponseBody body = ResponseBody.read(response, instance.getMaxErrorBodySize());
+            if (statusCode >= 500) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+            if (statusCode == 200) {
+                entry.delete(directory);
+                if (entry.digestKey != null && entry.digest != null) {
+                    ReportDigestCache.sent(entry.digestKey, entry.digest);
+                }
+                recordDelivery();
+                listener.getLogger().println(Messages.outboxDelivered(entry.id, entry.instanceName));
+                return true;
+            } else if (isRejected(statusCode)) {
+                drop(entry, Messages.outboxRejected(statusCode, body), listener);
+            } else {
+                retryLater(entry, Messages.outboxStatus(statusCode), listener);
+            }
+        } catch (IOException e) {
+            if (instance.getRetryPolicy().isRetryable(e)) {
+                breaker.onFailure();
+            } else {
+                breaker.release();
+            }
+            retryLater(entry, e.getMessage(), listener);
+        }
+        return false;
+    }
+
+    private boolean isRejected(int statusCode) {
+        // client errors will not be fixed by sending the same request again, except for timeouts and throttling
+        return statusCode >= 400 && statusCode < 500 && statusCode != 408 && statusCode != 429;
+    }
+
+    private void retryLater(Entry entry, String reason, TaskListener listener) {
+        entry.attempts++;
+        long backoff = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(entry.attempts - 1, 20));
+        entry.nextAttempt = System.currentTimeMillis() + backoff;
+        listener.getLogger().println(Messages.outboxRetry(entry.id, reason, entry.attempts,
+                                                          Util.getTimeSpanString(backoff)));
+        try {
+            entry.save(getDirectory());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not update outbox entry " + entry.id, e);
+        }
+    }
+
+    private void drop(Entry entry, String reason, TaskListener listener) {
+        dropped.incrementAndGet();
+        LOGGER.log(Level.WARNING, "Dropping report {0} for source {1}: {2}",
+                   new Object[]{entry.id, entry.sourceKey, reason});
+        listener.getLogger().println(Messages.outboxDropped(entry.id, reason));
+        synchronized (droppedIds) {
+            droppedIds.add(entry.id);
+        }
+        entry.delete(getDirectory());
+    }
+
+    private boolean isDropped(String id) {
+        synchronized (droppedIds) {
+            return droppedIds.contains(id);
+        }
+    }
+
+    private synchronized void recordDelivery() {
+        long now = System.currentTimeMillis();
+        delivered.incrementAndGet();
+        deliveries.add(now);
+        pruneDeliveries(now);
+    }
+
+    private void pruneDeliveries(long now) {
+        while (!deliveries.isEmpty() && deliveries.peek() < now - RATE_WINDOW) {
+            deliveries.poll();
+        }
+    }
+
+    private File[] listEntries() {
+        File[] entries = getDirectory().listFiles((d, n) -> n.endsWith(ENTRY_EXTENSION));
+        return entries == null ? new File[0] : entries;
+    }
+
+    private List<Entry> loadEntries() {
+        List<Entry> entries = new ArrayList<>();
+        for (File file : listEntries()) {
+            try {
+                entries.add(Entry.load(file));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not read outbox entry " + file, e);
+            }
+        }
+        entries.sort(Comparator.comparingLong(e -> e.createdAt));
+        return entries;
+    }
+
+    private long getMaxBytes() {
+        return GlobalConfiguration.all().get(ThemisGlobalConfiguration.class).getOutboxMaxSize() * 1024L * 1024L;
+    }
+
+    private File getDirectory() {
+        return new File(Jenkins.getActiveInstance().getRootDir(), DIRECTORY);
+    }
+
+    /**
+     * A queued report: the metadata and the delivery state, stored next to the archive.
+     */
+    private static final class Entry {
+
+        private final String id;
+        private final String instanceName;
+        private final String sourceKey;
+        private final String metadata;
+        private final long createdAt;
+        private String digestKey;
+        private String digest;
+        private int attempts;
+        private long nextAttempt;
+
+        private Entry(String id, String instanceName, String sourceKey, String metadata, long createdAt) {
+            this.id = id;
+            this.instanceName = instanceName;
+            this.sourceKey = sourceKey;
+            this.metadata = metadata;
+            this.createdAt = createdAt;
+        }
+
+        private static Entry load(File file) throws IOException {
+            JSONObject json = new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            Entry entry = new Entry(json.getString("id"), json.getString("instanceName"),
+                                    json.getString("sourceKey"), json.getString("metadata"),
+                                    json.getLong("createdAt"));
+            entry.digestKey = json.optString("digestKey", null);
+            entry.digest = json.optString("digest", null);
+            entry.attempts = json.optInt("attempts", 0);
+            entry.nextAttempt = json.optLong("nextAttempt", 0);
+            return entry;
+        }
+
+        private void save(File directory) throws IOException {
+            JSONObject json = new JSONObject()
+                    .put("id", id)
+                    .put("instanceName", instanceName)
+                    .put("sourceKey", sourceKey)
+                    .put("metadata", metadata)
+                    .put("createdAt", createdAt)
+                    .putOpt("digestKey", digestKey)
+                    .putOpt("digest", digest)
+                    .put("attempts", attempts)
+                    .put("nextAttempt", nextAttempt);
+            // the entry file is written last and atomically, so that it only exists for complete archives
+            File temporary = new File(directory, id + ENTRY_EXTENSION + TEMPORARY_EXTENSION);
+            Files.write(temporary.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary.toPath(), new File(directory, id + ENTRY_EXTENSION).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private File getArchive(File directory) {
+            return new File(directory, id + ARCHIVE_EXTENSION);
+        }
+
+        private void delete(File directory) {
+            try {
+                Files.deleteIfExists(new File(directory, id + ENTRY_EXTENSION).toPath());
+                Files.deleteIfExists(getArchive(directory).toPath());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not delete outbox entry " + id, e);
+            }
+        }
+
+    }
+
+    /**
+     * Periodically sends the queued reports.
+     */
+    @Extension
+    public static final class Drainer extends AsyncPeriodicWork {
+
+        public Drainer() {
+            super("Themis outbox");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN_BACKOFF;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            ReportOutbox.get().drain(listener);
+        }
+
+    }
+
+}
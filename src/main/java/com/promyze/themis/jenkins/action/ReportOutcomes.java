@@ -0,0 +1,78 @@
+package com.promyze.themis.jenkins.action;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records on a build whether the reports sent to each Themis instance were all sent successfully, so that a refresh
+ * can be requested only once they were. Reports queued in the outbox are recorded as pending, with the id of their
+ * outbox entry, until the refresh waits for their delivery.
+ */
+final class ReportOutcomes extends InvisibleAction {
+
+    private final Map<String, Boolean> sent = new HashMap<>();
+    // not final, since builds recorded before reports were queued in the outbox do not have it
+    private Map<String, List<String>> queued = new HashMap<>();
+
+    /**
+     * Records the outcome of the reports sent to an instance by a report action.
+     *
+     * @param run          the build
+     * @param instanceName the name of the Themis instance
+     * @param allSent      whether all the reports of the action that were not queued were sent successfully
+     * @param queuedIds    the ids of the outbox entries of the reports that were queued
+     */
+    static void record(Run<?, ?> run, String instanceName, boolean allSent, List<String> queuedIds) {
+        synchronized (ReportOutcomes.class) {
+            ReportOutcomes outcomes = run.getAction(ReportOutcomes.class);
+            if (outcomes == null) {
+                outcomes = new ReportOutcomes();
+                run.addAction(outcomes);
+            }
+            outcomes.sent.merge(instanceName, allSent, Boolean::logicalAnd);
+            if (!queuedIds.isEmpty()) {
+                outcomes.queued.computeIfAbsent(instanceName, n -> new ArrayList<>()).addAll(queuedIds);
+            }
+        }
+    }
+
+    /**
+     * @param run          the build
+     * @param instanceName the name of the Themis instance
+     * @return whether all the reports sent to the instance during the build were sent successfully, the queued ones
+     * being pending, or {@code null} if no reports were sent to it
+     */
+    static Boolean isAllSent(Run<?, ?> run, String instanceName) {
+        synchronized (ReportOutcomes.class) {
+            ReportOutcomes outcomes = run.getAction(ReportOutcomes.class);
+            return outcomes == null ? null : outcomes.sent.get(instanceName);
+        }
+    }
+
+    /**
+     * @param run          the build
+     * @param instanceName the name of the Themis instance
+     * @return the ids of the outbox entries of the reports queued for the instance during the build
+     */
+    static List<String> getQueued(Run<?, ?> run, String instanceName) {
+        synchronized (ReportOutcomes.class) {
+            ReportOutcomes outcomes = run.getAction(ReportOutcomes.class);
+            List<String> ids = outcomes == null ? null : outcomes.queued.get(instanceName);
+            return ids == null ? Collections.emptyList() : new ArrayList<>(ids);
+        }
+    }
+
+    private Object readResolve() {
+        if (queued == null) {
+            queued = new HashMap<>();
+        }
+        return this;
+    }
+
+}
@@ -0,0 +1,273 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration;
+import hudson.FilePath;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.InputStreamBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the requests that send report archives to Themis, wherever they are sent from.
+ */
+final class ReportRequests {
+
+    static final ContentType ARCHIVE_CONTENT_TYPE = ContentType.create("application/zip");
+    static final String ARCHIVE_FILENAME = "archive.zip";
+
+    static final String BATCH_ARCHIVE_PART_PREFIX = "archive-";
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private ReportRequests() {
+        // private constructor for utility class
+    }
+
+    /**
+     * @param url            the URL to send the reports to
+     * @param apiKey         the API key of the Themis instance
+     * @param idempotencyKey the key identifying the upload, identical for all its attempts
+     * @param metadata       the report metadata, as UTF-8 encoded JSON
+     * @param archive        the archive part
+     * @return a multipart request containing the archive and the metadata
+     */
+    static HttpPost newRequest(String url, String apiKey, String idempotencyKey, byte[] metadata,
+                               ContentBody archive) {
+        HttpPost request = newPost(url, apiKey, idempotencyKey);
+        request.setEntity(new TimedEntity(MultipartEntityBuilder
+                                                  .create()
+                                                  .addPart("archive", archive)
+                                                  .addPart("metadata", new MetadataBody(metadata))
+                                                  .build()));
+        return request;
+    }
+
+    /**
+     * @param url            the URL to send the reports to
+     * @param apiKey         the API key of the Themis instance
+     * @param idempotencyKey the key identifying the upload, identical for all its attempts
+     * @param manifest       the metadata of all the reports, as JSON
+     * @param archives       the archive parts, in the order of the reports in the manifest
+     * @return a multipart request containing one archive per report type and the manifest
+     */
+    static HttpPost newBatchRequest(String url, String apiKey, String idempotencyKey, String manifest,
+                                    List<? extends ContentBody> archives) {
+        HttpPost request = newPost(url, apiKey, idempotencyKey);
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        for (int i = 0; i < archives.size(); i++) {
+            builder.addPart(BATCH_ARCHIVE_PART_PREFIX + i, archives.get(i));
+        }
+        request.setEntity(new TimedEntity(builder.addTextBody("metadata", manifest, ContentType.APPLICATION_JSON)
+                                                  .build()));
+        return request;
+    }
+
+    /**
+     * Measures how long Themis took to respond to a request once its body was sent. Unlike the time since the request
+     * started, it does not include archiving and streaming the report files, so it does not grow with their size.
+     *
+     * @param request the request, built by this class
+     * @param start   when the request started, as given by {@link System#nanoTime()}
+     * @return the time elapsed since the body of the request was sent, or since the request started if the body was
+     * not entirely sent, e.g., when Themis responded early, in milliseconds
+     */
+    static long getResponseLatency(HttpPost request, long start) {
+        HttpEntity entity = request.getEntity();
+        long sent = entity instanceof TimedEntity ? ((TimedEntity) entity).sent : 0;
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - (sent != 0 ? sent : start));
+    }
+
+    private static HttpPost newPost(String url, String apiKey, String idempotencyKey) {
+        HttpPost request = new HttpPost(url);
+        request.setHeader(ThemisGlobalConfiguration.THEMIS_API_KEY, apiKey);
+        // lets Themis recognize an upload that is attempted again after a failure it already processed
+        request.setHeader(IDEMPOTENCY_KEY, idempotencyKey);
+        return request;
+    }
+
+    static ContentBody archiveBody(InputStream inputStream) {
+        return new InputStreamBody(inputStream, ARCHIVE_CONTENT_TYPE, ARCHIVE_FILENAME);
+    }
+
+    /**
+     * @param file the archive file
+     * @return an archive part that sends the file, with a known length
+     */
+    static ContentBody archiveBody(File file) {
+        return new SpooledArchiveBody(file);
+    }
+
+    /**
+     * @param workspace the workspace containing the report files
+     * @param files     the report files to archive, found in the workspace
+     * @param options   how the report files are archived
+     * @return an archive part that zips the report files while the request is being written
+     */
+    static WorkspaceArchiveBody archiveBody(FilePath workspace, ScannedFiles files, ArchiveOptions options) {
+        return new WorkspaceArchiveBody(workspace, files, options);
+    }
+
+    /**
+     * An entity that records when it was entirely written.
+     */
+    private static final class TimedEntity extends HttpEntityWrapper {
+
+        private volatile long sent;
+
+        private TimedEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            super.writeTo(out);
+            out.flush();
+            sent = System.nanoTime();
+        }
+
+    }
+
+    /**
+     * A multipart body that sends an archive file, transferring it from its file channel rather than through an
+     * intermediate stream buffer.
+     */
+    private static final class SpooledArchiveBody extends FileBody {
+
+        private SpooledArchiveBody(File file) {
+            super(file, ARCHIVE_CONTENT_TYPE, ARCHIVE_FILENAME);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try (FileChannel channel = FileChannel.open(getFile().toPath(), StandardOpenOption.READ)) {
+                // the target channel is not closed, since the multipart entity has more to write after this part
+                WritableByteChannel target = Channels.newChannel(out);
+                long size = channel.size();
+                long position = 0;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, target);
+                }
+            }
+            out.flush();
+        }
+
+    }
+
+    /**
+     * A multipart body that sends serialized metadata as is, like the text body of the same content, without decoding
+     * and encoding it again.
+     */
+    private static final class MetadataBody extends AbstractContentBody {
+
+        private final byte[] metadata;
+
+        private MetadataBody(byte[] metadata) {
+            super(ContentType.APPLICATION_JSON);
+            this.metadata = metadata;
+        }
+
+        @Override
+        public String getFilename() {
+            return null;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(metadata);
+        }
+
+        @Override
+        public String getTransferEncoding() {
+            return MIME.ENC_8BIT;
+        }
+
+        @Override
+        public long getContentLength() {
+            return metadata.length;
+        }
+
+    }
+
+    /**
+     * A multipart body that zips the report files while the request is being written, and measures the archive.
+     */
+    static final class WorkspaceArchiveBody extends AbstractContentBody {
+
+        private final FilePath workspace;
+        private final ScannedFiles files;
+        private final ArchiveOptions options;
+        private volatile long archiveTime = -1;
+        private volatile long bytes = -1;
+
+        private WorkspaceArchiveBody(FilePath workspace, ScannedFiles files, ArchiveOptions options) {
+            super(ARCHIVE_CONTENT_TYPE);
+            this.workspace = workspace;
+            this.files = files;
+            this.options = options;
+        }
+
+        @Override
+        public String getFilename() {
+            return ARCHIVE_FILENAME;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            long start = System.nanoTime();
+            try {
+                // the zip archiver closes its stream, but the multipart entity has more to write after this part
+                CountingOutputStream counter = new CountingOutputStream(new CloseShieldOutputStream(out));
+                ReportArchiver.zip(workspace, counter, files, options);
+                bytes = counter.getByteCount();
+                archiveTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public String getTransferEncoding() {
+            return MIME.ENC_BINARY;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        /**
+         * @return the time spent writing the archive the last time it was written, in milliseconds, or -1 if unknown
+         */
+        long getArchiveTime() {
+            return archiveTime;
+        }
+
+        /**
+         * @return the size of the archive the last time it was written, in bytes, or -1 if unknown
+         */
+        long getBytes() {
+            return bytes;
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.promyze.themis.jenkins.action;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.tools.ant.BuildException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks for the report files matching some patterns on the node that holds the workspace, in a single walk of the
+ * workspace. The files found are then digested and archived without looking for them again.
+ */
+final class ReportScan extends MasterToSlaveFileCallable<ScannedFiles> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String includes;
+
+    /**
+     * Default constructor.
+     *
+     * @param includes the ant-style patterns of the report files, separated by commas
+     */
+    ReportScan(String includes) {
+        this.includes = includes;
+    }
+
+    @Override
+    public ScannedFiles invoke(File workspace, VirtualChannel channel) throws IOException {
+        long start = System.nanoTime();
+        String[] paths;
+        try {
+            paths = Util.createFileSet(workspace, includes).getDirectoryScanner().getIncludedFiles();
+        } catch (BuildException e) {
+            // e.g., the workspace does not exist, reported like FilePath#list
+            throw new IOException(e.getMessage(), e);
+        }
+        // sorted so that the digest and the archive of the same files are always the same
+        Arrays.sort(paths);
+        List<ScannedFiles.Entry> entries = new ArrayList<>(paths.length);
+        for (String path : paths) {
+            File file = new File(workspace, path);
+            entries.add(new ScannedFiles.Entry(path, file.length(), file.lastModified()));
+        }
+        return new ScannedFiles(entries, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.promyze.themis.jenkins.action;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Aborts a request that is still running after a deadline, e.g., by aborting the HTTP request and cancelling the task
+ * writing its archive. Since it does not depend on the Jenkins instance, it can be used on agents.
+ * <p>
+ * A deadline may also cover several attempts of a request: each attempt then registers the actions that abort it
+ * while it runs.
+ * </p>
+ */
+final class RequestDeadline implements AutoCloseable {
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(
+            1, new NamingThreadFactory(new DaemonThreadFactory(), "Themis request deadline"));
+
+    static {
+        // most requests complete before their deadline, which is then removed rather than kept until it expires
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final long timeout;
+    private final long expiresAt;
+    private final List<Runnable> aborts;
+    private final ScheduledFuture<?> expiry;
+    private volatile boolean expired;
+
+    /**
+     * Default constructor.
+     *
+     * @param timeout the maximum duration of the request, in seconds
+     * @param aborts  the actions that abort the request
+     */
+    RequestDeadline(long timeout, Runnable... aborts) {
+        this.timeout = timeout;
+        this.expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        this.aborts = new CopyOnWriteArrayList<>(Arrays.asList(aborts));
+        this.expiry = SCHEDULER.schedule(() -> {
+            expired = true;
+            this.aborts.forEach(Runnable::run);
+        }, timeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers an action that aborts the current attempt of the request, run at once if the deadline has already
+     * expired.
+     *
+     * @param abort the action that aborts the attempt
+     * @return a registration to close once the attempt is over
+     */
+    Registration register(Runnable abort) {
+        aborts.add(abort);
+        if (expired) {
+            abort.run();
+        }
+        return () -> aborts.remove(abort);
+    }
+
+    /**
+     * Wraps a stream written by the request, e.g., to a temporary file, so that writing it fails once the deadline has
+     * expired.
+     *
+     * @param out the stream to wrap
+     * @return the wrapped stream
+     */
+    OutputStream guard(OutputStream out) {
+        return new FilterOutputStream(out) {
+
+            @Override
+            public void write(int b) throws IOException {
+                check();
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                check();
+                out.write(b, off, len);
+            }
+
+            private void check() throws InterruptedIOException {
+                if (expired) {
+                    throw new InterruptedIOException(newTimeoutException().getMessage());
+                }
+            }
+
+        };
+    }
+
+    /**
+     * @return whether the request was aborted because it reached the deadline
+     */
+    boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * @return the time left before the deadline, in milliseconds, or 0 if it has expired
+     */
+    long getRemaining() {
+        return expired ? 0 : Math.max(0, expiresAt - System.currentTimeMillis());
+    }
+
+    /**
+     * @return an exception describing the expiry, to report instead of the failure caused by aborting the request
+     */
+    TimeoutException newTimeoutException() {
+        return new TimeoutException("Request to Themis did not complete within " + timeout + " seconds");
+    }
+
+    @Override
+    public void close() {
+        expiry.cancel(false);
+    }
+
+    /**
+     * The registration of an action aborting an attempt, removed when closed.
+     */
+    @FunctionalInterface
+    interface Registration extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+}
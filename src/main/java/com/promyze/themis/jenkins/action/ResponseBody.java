@@ -0,0 +1,98 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.Messages;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The body of a response of Themis, kept to be reported when the request failed. Error bodies are read up to a maximum
+ * size, so that large error pages, e.g., of a proxy, are not held in memory by each failed request. The rest of a
+ * truncated body is not read, and the connection is closed with the response rather than reused.
+ */
+final class ResponseBody implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ResponseBody EMPTY = new ResponseBody("", -1);
+
+    private final String text;
+    // the size the body was truncated to, in bytes, or -1 if it was read whole
+    private final int truncatedTo;
+
+    private ResponseBody(String text, int truncatedTo) {
+        this.text = text;
+        this.truncatedTo = truncatedTo;
+    }
+
+    /**
+     * Reads the body of a response, keeping it only if the request failed.
+     *
+     * @param response the response
+     * @param maxBytes the maximum size of the body that is kept, in bytes
+     * @return the body of an error response, or an empty body for a successful one
+     * @throws IOException if the body could not be read
+     */
+    static ResponseBody read(HttpResponse response, int maxBytes) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (response.getStatusLine().getStatusCode() == 200) {
+            // read whole without being kept, so that the connection is reused
+            EntityUtils.consume(entity);
+            return EMPTY;
+        }
+        return entity == null ? EMPTY : read(entity, maxBytes);
+    }
+
+    private static ResponseBody read(HttpEntity entity, int maxBytes) throws IOException {
+        // the stream is not closed, since closing it would read the rest of the body
+        InputStream in = entity.getContent();
+        byte[] buffer = new byte[maxBytes + 1];
+        int length = IOUtils.read(in, buffer);
+        Charset charset = getCharset(entity);
+        if (length <= maxBytes) {
+            return new ResponseBody(new String(buffer, 0, length, charset), -1);
+        }
+        return new ResponseBody(new String(Arrays.copyOf(buffer, maxBytes), charset), maxBytes);
+    }
+
+    static Charset getCharset(HttpEntity entity) {
+        try {
+            Charset charset = ContentType.getOrDefault(entity).getCharset();
+            return charset != null ? charset : StandardCharsets.UTF_8;
+        } catch (RuntimeException e) {
+            // e.g., an unsupported charset
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    /**
+     * @param text the text to look for
+     * @return whether the body contains the text, ignoring case
+     */
+    boolean containsIgnoreCase(String text) {
+        return this.text.toLowerCase(Locale.ROOT).contains(text.toLowerCase(Locale.ROOT));
+    }
+
+    boolean isTruncated() {
+        return truncatedTo >= 0;
+    }
+
+    /**
+     * @return the body, noting whether it was truncated
+     */
+    @Override
+    public String toString() {
+        return isTruncated() ? Messages.truncatedBody(text, truncatedTo) : text;
+    }
+
+}
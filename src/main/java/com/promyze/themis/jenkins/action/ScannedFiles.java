@@ -0,0 +1,122 @@
+package com.promyze.themis.jenkins.action;
+
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The report files found by a {@link ReportScan}, in a deterministic order, with their size and modification time.
+ */
+final class ScannedFiles implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Entry> entries;
+    private final long scanTime;
+
+    /**
+     * Default constructor.
+     *
+     * @param entries  the report files, sorted by path
+     * @param scanTime the time spent looking for the report files on the node that holds the workspace, in milliseconds
+     */
+    ScannedFiles(List<Entry> entries, long scanTime) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.scanTime = scanTime;
+    }
+
+    /**
+     * @return the report files, sorted by path
+     */
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total size of the report files, in bytes
+     */
+    long getTotalSize() {
+        return entries.stream().mapToLong(Entry::getSize).sum();
+    }
+
+    /**
+     * @return the time spent looking for the report files on the node that holds the workspace, in milliseconds
+     */
+    long getScanTime() {
+        return scanTime;
+    }
+
+    /**
+     * @return a scanner that visits the report files, without looking for them again
+     */
+    DirScanner toScanner() {
+        return new Scanner(this);
+    }
+
+    /**
+     * A report file, with its path relative to the workspace.
+     */
+    static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final long size;
+        private final long lastModified;
+
+        Entry(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+    }
+
+    /**
+     * Visits the scanned report files, for {@link hudson.FilePath#zip(java.io.OutputStream, DirScanner)}.
+     */
+    private static final class Scanner extends DirScanner {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ScannedFiles files;
+
+        private Scanner(ScannedFiles files) {
+            this.files = files;
+        }
+
+        @Override
+        public void scan(File dir, FileVisitor visitor) throws IOException {
+            for (Entry entry : files.entries) {
+                visitor.visit(new File(dir, entry.path), entry.path);
+            }
+        }
+
+    }
+
+}
@@ -1,8 +1,10 @@
 package com.promyze.themis.jenkins.action;
 
+import com.promyze.themis.jenkins.CircuitBreaker;
 import com.promyze.themis.jenkins.Messages;
 import com.promyze.themis.jenkins.ThemisGlobalConfiguration;
 import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import com.promyze.themis.jenkins.ThemisTimingAction.Timing;
 import hudson.FilePath;
 import hudson.model.Run;
 import hudson.model.TaskListener;
@@ -60,12 +62,58 @@ public abstract class ThemisAction implements Serializable {
      * @param listener  the listener to send the output to
      */
     public void perform(Run<?, ?> run, FilePath workspace, TaskListener listener) {
+        ThemisInstance instance = findInstance(listener);
+        if (instance != null && checkAvailable(instance, listener)) {
+            doPerform(instance, run, workspace, listener);
+        }
+    }
+
+    /**
+     * Looks for the Themis instance to use, and fails if it does not exist.
+     *
+     * @param listener the listener to send the output to
+     * @return the Themis instance, or {@code null} if it does not exist
+     */
+    ThemisInstance findInstance(TaskListener listener) {
         ThemisInstance instance = getInstance();
         if (instance == null) {
             fail(listener, Messages.unknownInstance(instanceName));
-        } else {
-            doPerform(instance, run, workspace, listener);
         }
+        return instance;
+    }
+
+    /**
+     * Checks that the circuit breaker of the Themis instance lets requests through, and fails if it does not. The
+     * breaker is checked again before each request is sent, since it may open while the requests are prepared.
+     *
+     * @param instance the Themis instance
+     * @param listener the listener to send the output to
+     * @return whether the action may send requests to the instance
+     */
+    boolean checkAvailable(ThemisInstance instance, TaskListener listener) {
+        if (isDeferred() || CircuitBreaker.get(instance).isAvailable()) {
+            return true;
+        }
+        fail(listener, Messages.instanceUnavailable(instance.getName()));
+        return false;
+    }
+
+    /**
+     * @return whether the action only queues its requests, which are sent later in the background; such actions are
+     * performed even if the Themis instance is unavailable
+     */
+    boolean isDeferred() {
+        return false;
+    }
+
+    /**
+     * Prints the timing of a request to the build output.
+     *
+     * @param listener the listener to send the output to
+     * @param timing   the timing of the request
+     */
+    void printTiming(TaskListener listener, Timing timing) {
+        listener.getLogger().println(Messages.timingSummary(timing.getKey(), timing.getSummary()));
     }
 
     private ThemisInstance getInstance() {
@@ -1,31 +1,66 @@
 package com.promyze.themis.jenkins.action;
 
+import com.promyze.themis.jenkins.AdaptiveConcurrency;
+import com.promyze.themis.jenkins.AdaptiveConcurrency.RequestType;
+import com.promyze.themis.jenkins.CircuitBreaker;
 import com.promyze.themis.jenkins.HttpClientUtils;
 import com.promyze.themis.jenkins.Messages;
+import com.promyze.themis.jenkins.RetryPolicy;
 import com.promyze.themis.jenkins.ThemisGlobalConfiguration;
 import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import com.promyze.themis.jenkins.ThemisTimingAction;
+import com.promyze.themis.jenkins.Throttle;
+import com.promyze.themis.jenkins.UploadExecutor;
 import hudson.FilePath;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
- * Action that sends a request the refresh of a Themis project.
+ * Action that sends a request the refresh of a Themis project, and optionally waits for the refresh to complete.
+ * <p>
+ * Themis reports the progress of a refresh at {@code /api/refreshStatus/{projectKey}}, as a JSON object with a
+ * {@code status} and the {@code dataDisplayed}. The refresh is running while its status is {@code PENDING} or
+ * {@code RUNNING}. Instances that do not report the progress of refreshes are not waited for.
+ * </p>
  */
 public class ThemisRefreshAction extends ThemisAction {
 
     private static final long serialVersionUID = 1L;
 
-    private static final String REFRESH_URL_FORMAT = "{0}/api/refreshProject/{1}";
+    public static final String STATUS_KEY = "status";
+    public static final String DATA_DISPLAYED_KEY = "dataDisplayed";
+    public static final String STATUS_REQUESTED = "REQUESTED";
+    public static final String STATUS_SKIPPED = "SKIPPED";
+    public static final String STATUS_FAILED = "FAILED";
+    public static final String STATUS_TIMEOUT = "TIMEOUT";
+    public static final int DEFAULT_COMPLETION_TIMEOUT = 1800;
+
+    private static final Set<String> RUNNING_STATUSES = new HashSet<>(Arrays.asList("PENDING", "RUNNING"));
+    private static final long POLL_INITIAL_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final long POLL_MAX_DELAY = TimeUnit.SECONDS.toMillis(30);
 
     private final String projectKey;
+    private boolean afterReports;
+    private boolean waitForCompletion;
+    private int completionTimeout;
 
     /**
      * Default constructor.
@@ -45,32 +80,374 @@ public class ThemisRefreshAction extends ThemisAction {
         return projectKey;
     }
 
+    /**
+     * @return whether the refresh is skipped if reports sent to the same instance during the build were not all sent
+     * successfully
+     */
+    public boolean isAfterReports() {
+        return afterReports;
+    }
+
+    /**
+     * Sets {@link #afterReports}.
+     *
+     * @param afterReports {@code true} if the refresh should only be requested once all the reports sent to the same
+     *                     instance during the build were sent successfully
+     */
+    public void setAfterReports(boolean afterReports) {
+        this.afterReports = afterReports;
+    }
+
+    /**
+     * @return whether the action waits for the refresh to complete
+     */
+    public boolean isWaitForCompletion() {
+        return waitForCompletion;
+    }
+
+    /**
+     * Sets {@link #waitForCompletion}.
+     *
+     * @param waitForCompletion {@code true} if the action should wait for the refresh to complete
+     */
+    public void setWaitForCompletion(boolean waitForCompletion) {
+        this.waitForCompletion = waitForCompletion;
+    }
+
+    /**
+     * @return the maximum time to wait for the refresh to complete, in seconds
+     */
+    public int getCompletionTimeout() {
+        return completionTimeout > 0 ? completionTimeout : DEFAULT_COMPLETION_TIMEOUT;
+    }
+
+    /**
+     * Sets {@link #completionTimeout}.
+     *
+     * @param completionTimeout the maximum time to wait for the refresh to complete, in seconds
+     */
+    public void setCompletionTimeout(int completionTimeout) {
+        this.completionTimeout = completionTimeout;
+    }
+
     @Override
     void doPerform(ThemisInstance instance, Run<?, ?> run, FilePath workspace, TaskListener listener) {
-        try (CloseableHttpClient httpClient = HttpClientUtils.getClient();
-             CloseableHttpResponse response = refreshThemis(httpClient, instance)) {
-            String body = EntityUtils.toString(response.getEntity());
-            if (isSuccessful(response)) {
-                JSONObject result = new JSONObject(body);
-                listener.getLogger().println(Messages.projectRefreshed(result.get("dataDisplayed")));
+        CompletableFuture<Map<String, String>> completion = doPerformAsync(instance, run, listener);
+        try {
+            completion.get();
+        } catch (InterruptedException e) {
+            completion.cancel(true);
+            Thread.currentThread().interrupt();
+            fail(listener, Messages.themisUnknownError(instance.getName()), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            fail(listener, Messages.themisUnknownError(instance.getName()), e.getCause());
+        }
+    }
+
+    /**
+     * Performs the action without holding a thread while waiting for Themis. The request is sent by the threads of
+     * the {@link UploadExecutor}, and the progress of the refresh is checked periodically.
+     *
+     * @param run      the current job execution
+     * @param listener the listener to send the output to
+     * @return a future completed with the {@link #STATUS_KEY status} of the refresh and the
+     * {@link #DATA_DISPLAYED_KEY data displayed} by Themis, or completed exceptionally if the build should fail
+     */
+    public CompletableFuture<Map<String, String>> performAsync(Run<?, ?> run, TaskListener listener) {
+        try {
+            ThemisInstance instance = findInstance(listener);
+            return instance == null || !checkAvailable(instance, listener)
+                    ? CompletableFuture.completedFuture(result(STATUS_FAILED, null))
+                    : doPerformAsync(instance, run, listener);
+        } catch (RuntimeException e) {
+            CompletableFuture<Map<String, String>> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+    }
+
+    private CompletableFuture<Map<String, String>> doPerformAsync(ThemisInstance instance, Run<?, ?> run,
+                                                                  TaskListener listener) {
+        if (!afterReports) {
+            return requestRefresh(instance, run, listener);
+        }
+        if (Boolean.FALSE.equals(ReportOutcomes.isAllSent(run, instance.getName()))) {
+            listener.getLogger().println(Messages.refreshSkipped(projectKey));
+            return CompletableFuture.completedFuture(result(STATUS_SKIPPED, null));
+        }
+        List<String> queued = ReportOutcomes.getQueued(run, instance.getName());
+        if (queued.isEmpty()) {
+            return requestRefresh(instance, run, listener);
+        }
+        // the reports queued in the outbox are sent first, and the refresh is requested once they are delivered
+        listener.getLogger().println(Messages.refreshWaitingForOutbox(projectKey, queued.size()));
+        return ReportOutbox.get().deliver(queued, listener)
+                .thenCompose(delivered -> {
+                    if (delivered) {
+                        return requestRefresh(instance, run, listener);
+                    }
+                    listener.getLogger().println(Messages.refreshSkipped(projectKey));
+                    return CompletableFuture.completedFuture(result(STATUS_SKIPPED, null));
+                });
+    }
+
+    private CompletableFuture<Map<String, String>> requestRefresh(ThemisInstance instance, Run<?, ?> run,
+                                                                  TaskListener listener) {
+        UploadTimings timings = new UploadTimings();
+        String queue = run.getParent().getFullName();
+        Publication publication = new Publication(instance, queue);
+        // a shared refresh is sent by a publication of its own, which is not cancelled since other builds wait for it
+        CompletableFuture<Response> response = instance.getRefreshDebounce() > 0
+                ? RefreshCoordinator.get().refresh(instance, projectKey, () -> send(new Publication(instance, queue)))
+                : send(publication);
+        response.whenComplete((r, t) -> {
+            timings.completed();
+            ThemisTimingAction.record(run, timings.toTiming(instance.getName(), projectKey));
+        });
+        CompletableFuture<Map<String, String>> completion = response
+                .handle((r, t) -> {
+                    if (publication.isCancelled()) {
+                        return CompletableFuture.completedFuture(result(STATUS_FAILED, null));
+                    }
+                    return t == null
+                            ? handleResponse(publication, listener, r, timings)
+                            : handleError(instance, listener, t);
+                })
+                .thenCompose(Function.identity());
+        completion.whenComplete((v, t) -> {
+            if (completion.isCancelled()) {
+                publication.cancel();
+            }
+        });
+        return completion;
+    }
+
+    private CompletableFuture<Map<String, String>> handleResponse(Publication publication, TaskListener listener,
+                                                                  Response response, UploadTimings timings) {
+        ThemisInstance instance = publication.getInstance();
+        timings.attempted(-1, -1, response.firstByteTime);
+        if (response.statusCode != 200) {
+            fail(listener, Messages.refreshError(response.statusCode, response.body));
+            return CompletableFuture.completedFuture(result(STATUS_FAILED, null));
+        }
+        listener.getLogger().println(Messages.projectRefreshed(response.dataDisplayed));
+        printTiming(listener, timings.toTiming(instance.getName(), projectKey));
+        Map<String, String> requested = result(STATUS_REQUESTED, response.dataDisplayed);
+        if (!waitForCompletion) {
+            return CompletableFuture.completedFuture(requested);
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(getCompletionTimeout());
+        return poll(publication, listener, requested, POLL_INITIAL_DELAY, deadline);
+    }
+
+    private CompletableFuture<Map<String, String>> handleError(ThemisInstance instance, TaskListener listener,
+                                                               Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        fail(listener, Messages.themisUnknownError(instance.getName()), cause);
+        return CompletableFuture.completedFuture(result(STATUS_FAILED, null));
+    }
+
+    /**
+     * Checks the progress of the refresh after a delay, and again with increasing delays until it completes. The
+     * polls belong to the publication of the build, so that they stop when the build is aborted.
+     */
+    private CompletableFuture<Map<String, String>> poll(Publication publication, TaskListener listener,
+                                                        Map<String, String> requested, long delay, long deadline) {
+        ThemisInstance instance = publication.getInstance();
+        // the poll also waits while the instance asked for requests to be paused
+        long wait = Math.max(delay, Throttle.get(instance).getRemainingPause());
+        return publication.schedule(() -> CompletableFuture.completedFuture(getStatus(instance)), wait)
+                .handle((status, t) -> {
+                    if (publication.isCancelled()) {
+                        return CompletableFuture.completedFuture(requested);
+                    }
+                    if (t != null) {
+                        return handleError(instance, listener, t);
+                    }
+                    if (status == null) {
+                        listener.getLogger().println(Messages.refreshStatusUnknown(projectKey));
+                        return CompletableFuture.completedFuture(requested);
+                    }
+                    if (!RUNNING_STATUSES.contains(status.get(STATUS_KEY))) {
+                        listener.getLogger().println(Messages.refreshCompleted(status.get(STATUS_KEY),
+                                                                               status.get(DATA_DISPLAYED_KEY)));
+                        return CompletableFuture.completedFuture(status);
+                    }
+                    long nextDelay = Math.min(delay * 2, POLL_MAX_DELAY);
+                    if (System.currentTimeMillis() + nextDelay > deadline) {
+                        fail(listener, Messages.refreshTimeout(projectKey, getCompletionTimeout()));
+                        return CompletableFuture.completedFuture(result(STATUS_TIMEOUT,
+                                                                        status.get(DATA_DISPLAYED_KEY)));
+                    }
+                    return poll(publication, listener, requested, nextDelay, deadline);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * @return the status of the refresh, or {@code null} if the instance does not report the progress of refreshes
+     */
+    private Map<String, String> getStatus(ThemisInstance instance) throws IOException {
+        HttpGet request = newRequest(instance, instance.getEndpoints().getRefreshStatusUrl(projectKey));
+        try (RequestDeadline deadline = new RequestDeadline(instance.getRequestTimeout(), request::abort);
+             CloseableHttpResponse response = HttpClientUtils.getClient(instance).execute(request)) {
+            Throttle.get(instance).onResponse(response);
+            if (!isSuccessful(response)) {
+                ResponseBody body = ResponseBody.read(response, instance.getMaxErrorBodySize());
+                if (getStatusCode(response) == 404) {
+                    return null;
+                }
+                throw new HttpResponseException(getStatusCode(response), body.toString());
+            }
+            Map<String, Object> status = JsonFields.read(response.getEntity(), STATUS_KEY, DATA_DISPLAYED_KEY);
+            Object state = status.get(STATUS_KEY);
+            return result(state == null || JSONObject.NULL.equals(state) ? null : state.toString(),
+                          status.containsKey(DATA_DISPLAYED_KEY)
+                                  ? String.valueOf(status.get(DATA_DISPLAYED_KEY))
+                                  : null);
+        }
+    }
+
+    private static Map<String, String> result(String status, String dataDisplayed) {
+        Map<String, String> result = new HashMap<>();
+        result.put(STATUS_KEY, status);
+        result.put(DATA_DISPLAYED_KEY, dataDisplayed);
+        return result;
+    }
+
+    /**
+     * Sends the refresh request, attempting it again as allowed by the retry policy of the instance. The attempts are
+     * submitted to the {@link UploadExecutor} once their delay has elapsed, so that no thread is held while waiting.
+     * The request timeout of the instance covers all the attempts and the delays between them.
+     */
+    private CompletableFuture<Response> send(Publication publication) {
+        return publication.submit(() -> {
+            RequestDeadline deadline = new RequestDeadline(publication.getInstance().getRequestTimeout());
+            try {
+                CompletableFuture<Response> response = send(publication, deadline, 1);
+                response.whenComplete((r, t) -> deadline.close());
+                return response;
+            } catch (IOException e) {
+                deadline.close();
+                throw e;
+            }
+        });
+    }
+
+    private CompletableFuture<Response> send(Publication publication, RequestDeadline deadline, int attempt)
+            throws IOException {
+        ThemisInstance instance = publication.getInstance();
+        RetryPolicy policy = instance.getRetryPolicy();
+        if (Throttle.get(instance).getRemainingPause() > 0) {
+            // the attempt stays queued in the executor while the instance asked for requests to be paused
+            return publication.submit(() -> send(publication, deadline, attempt));
+        }
+        CircuitBreaker breaker = CircuitBreaker.get(instance);
+        if (!breaker.tryAcquire()) {
+            throw new IOException(Messages.instanceUnavailable(instance.getName()));
+        }
+        Response response = refresh(instance, policy, breaker, deadline, attempt);
+        if (response != null) {
+            return CompletableFuture.completedFuture(response);
+        }
+        return publication.schedule(() -> send(publication, deadline, attempt + 1), policy.getDelay(attempt));
+    }
+
+    /**
+     * @return the response, or {@code null} if the request failed and should be attempted again
+     */
+    private Response refresh(ThemisInstance instance, RetryPolicy policy, CircuitBreaker breaker,
+                             RequestDeadline deadline, int attempt) throws IOException {
+        HttpGet request = newRequest(instance, instance.getEndpoints().getRefreshUrl(projectKey));
+        long start = System.nanoTime();
+        try (RequestDeadline.Registration abort = deadline.register(request::abort);
+             CloseableHttpResponse response = HttpClientUtils.getClient(instance).execute(request)) {
+            long firstByteTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            AdaptiveConcurrency.get(instance).onResponse(RequestType.REFRESH, start, firstByteTime,
+                                                         getStatusCode(response));
+            Throttle.get(instance).onResponse(response);
+            if (getStatusCode(response) >= 500) {
+                breaker.onFailure();
             } else {
-                fail(listener, Messages.refreshError(response.getStatusLine().getStatusCode(), body));
+                breaker.onSuccess();
             }
+            if (isSuccessful(response)) {
+                return new Response(getStatusCode(response), readDataDisplayed(response), null, firstByteTime);
+            }
+            ResponseBody body = ResponseBody.read(response, instance.getMaxErrorBodySize());
+            if (canRetry(policy, breaker, deadline, attempt) && policy.isRetryable(getStatusCode(response))) {
+                return null;
+            }
+            return new Response(getStatusCode(response), null, body, firstByteTime);
         } catch (IOException e) {
-            fail(listener, Messages.themisUnknownError(instance.getName()), e);
+            if (!policy.isRetryable(e)) {
+                breaker.release();
+                throw e;
+            }
+            AdaptiveConcurrency.get(instance).onDropped(start);
+            breaker.onFailure();
+            if (canRetry(policy, breaker, deadline, attempt)) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether a failed attempt may be followed by another one, which must start before the deadline
+     */
+    private boolean canRetry(RetryPolicy policy, CircuitBreaker breaker, RequestDeadline deadline, int attempt) {
+        return policy.hasAttemptsLeft(attempt) && breaker.getState() != CircuitBreaker.State.OPEN
+                && policy.getDelay(attempt) < deadline.getRemaining();
+    }
+
+    /**
+     * @return the data displayed by the refreshed project, read from the response without keeping the whole body
+     */
+    private String readDataDisplayed(CloseableHttpResponse response) throws IOException {
+        Map<String, Object> fields = JsonFields.read(response.getEntity(), DATA_DISPLAYED_KEY);
+        if (!fields.containsKey(DATA_DISPLAYED_KEY)) {
+            throw new JSONException("JSONObject[\"" + DATA_DISPLAYED_KEY + "\"] not found.");
         }
+        return String.valueOf(fields.get(DATA_DISPLAYED_KEY));
+    }
+
+    private int getStatusCode(CloseableHttpResponse response) {
+        return response.getStatusLine().getStatusCode();
     }
 
     private boolean isSuccessful(CloseableHttpResponse response) {
         return response.getStatusLine().getStatusCode() == 200;
     }
 
-    private CloseableHttpResponse refreshThemis(CloseableHttpClient client, ThemisInstance instance)
-            throws IOException {
-        String url = MessageFormat.format(REFRESH_URL_FORMAT, instance.getUrl(), projectKey);
+    private HttpGet newRequest(ThemisInstance instance, String url) {
         HttpGet request = new HttpGet(url);
         request.setHeader(ThemisGlobalConfiguration.THEMIS_API_KEY, instance.getApiKey());
-        return client.execute(request);
+        return request;
+    }
+
+    /**
+     * The response to a refresh request, which may be shared by several builds.
+     */
+    private static final class Response {
+
+        private final int statusCode;
+        // the data displayed by the project, if the refresh was requested
+        private final String dataDisplayed;
+        // the body of the error, if the refresh failed
+        private final ResponseBody body;
+        private final long firstByteTime;
+
+        private Response(int statusCode, String dataDisplayed, ResponseBody body, long firstByteTime) {
+            this.statusCode = statusCode;
+            this.dataDisplayed = dataDisplayed;
+            this.body = body;
+            this.firstByteTime = firstByteTime;
+        }
+
     }
 
 }
@@ -1,37 +1,51 @@
 package com.promyze.themis.jenkins.action;
 
+import com.promyze.themis.jenkins.AdaptiveConcurrency;
+import com.promyze.themis.jenkins.AdaptiveConcurrency.RequestType;
+import com.promyze.themis.jenkins.CircuitBreaker;
 import com.promyze.themis.jenkins.HttpClientUtils;
 import com.promyze.themis.jenkins.Messages;
 import com.promyze.themis.jenkins.ReportFile;
-import com.promyze.themis.jenkins.ThemisGlobalConfiguration;
+import com.promyze.themis.jenkins.RetryPolicy;
 import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import com.promyze.themis.jenkins.ThemisTimingAction;
+import com.promyze.themis.jenkins.ThemisTimingAction.Timing;
+import com.promyze.themis.jenkins.Throttle;
+import com.promyze.themis.jenkins.UploadExecutor;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.model.Run;
 import hudson.model.TaskListener;
-import org.apache.http.HttpEntity;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
 import org.json.JSONObject;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
-import java.text.MessageFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * Action that sends report files (e.g., test coverage reports) to a Themis instance.
@@ -39,20 +53,35 @@ import java.util.concurrent.Future;
 public class ThemisReportAction extends ThemisAction {
 
     private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getLogger(ThemisReportAction.class.getName());
 
     public static final String TYPE_KEY = "type";
     public static final String PATH_KEY = "path";
 
-    private static final String REPORT_URL_FORMAT = "{0}/api/reportFiles/{1}";
     private static final String COMMIT_ATTRIBUTE = "commit";
     private static final String BRANCH_ATTRIBUTE = "branch";
     private static final String EXECUTION_DATE_ATTRIBUTE = "executionDate";
     private static final String DATA_WORKSPACE_ATTRIBUTE = "dataWorkspace";
     private static final String DATA_TYPE_ATTRIBUTE = "dataType";
+    private static final String REPORTS_ATTRIBUTE = "reports";
+    private static final String PART_ATTRIBUTE = "part";
+    private static final String BATCH_KEY_PREFIX = "batch:";
+    // how an error response names the batch endpoint
+    private static final String BATCH_ENDPOINT = "batch";
+    private static final long BATCH_RETRY_DELAY = TimeUnit.HOURS.toMillis(1);
+    private static final int KB = 1024;
+
+    // URLs of the instances that do not support batch uploads, with the time they rejected one
+    private static final Map<String, Long> BATCH_UNSUPPORTED = new ConcurrentHashMap<>();
 
     private final String sourceKey;
     private final Map<String, List<String>> reports = new HashMap<>();
     private EnvVars envVars;
+    private boolean uploadFromAgent;
+    private boolean skipUnchanged;
+    private boolean useOutbox;
+    private boolean batchUpload;
+    private boolean compactReports;
 
     /**
      * Default constructor
@@ -107,27 +136,234 @@ public class ThemisReportAction extends ThemisAction {
         this.envVars = envVars;
     }
 
+    /**
+     * @return whether report files are archived and sent directly from the node that holds the workspace
+     */
+    public boolean isUploadFromAgent() {
+        return uploadFromAgent;
+    }
+
+    /**
+     * Sets {@link #uploadFromAgent}.
+     *
+     * @param uploadFromAgent {@code true} if report files should be sent from the node that holds the workspace, which
+     *                        requires that this node can connect to the Themis instance
+     */
+    public void setUploadFromAgent(boolean uploadFromAgent) {
+        this.uploadFromAgent = uploadFromAgent;
+    }
+
+    /**
+     * Performs the action without waiting for the reports to be sent. The reports are sent by the threads of the
+     * {@link UploadExecutor}.
+     *
+     * @param run       the current job execution
+     * @param workspace the workspace of the current job
+     * @param listener  the listener to send the output to
+     * @return a future completed when all reports are sent, or completed exceptionally if the build should fail;
+     * cancelling it cancels the uploads
+     */
+    public CompletableFuture<Void> performAsync(Run<?, ?> run, FilePath workspace, TaskListener listener) {
+        return performAsync(run, workspace, listener, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Performs the action without waiting for the reports to be sent, as {@link #performAsync(Run, FilePath,
+     * TaskListener)} does. The idempotency keys of the requests are derived from the given upload id, so that
+     * performing the action again with the same id, e.g., when a step is resumed after a restart of Jenkins, lets
+     * Themis ignore the reports it already received.
+     *
+     * @param run       the current job execution
+     * @param workspace the workspace of the current job
+     * @param listener  the listener to send the output to
+     * @param uploadId  the unique id of the upload
+     * @return a future completed when all reports are sent, or completed exceptionally if the build should fail;
+     * cancelling it cancels the uploads
+     */
+    public CompletableFuture<Void> performAsync(Run<?, ?> run, FilePath workspace, TaskListener listener,
+                                                String uploadId) {
+        try {
+            ThemisInstance instance = findInstance(listener);
+            return instance == null || !checkAvailable(instance, listener)
+                    ? CompletableFuture.completedFuture(null)
+                    : doPerformAsync(instance, run, workspace, listener, uploadId);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+    }
+
+    /**
+     * @return whether reports are skipped when identical reports were already sent for the same commit
+     */
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    /**
+     * Sets {@link #skipUnchanged}.
+     *
+     * @param skipUnchanged {@code true} if reports should not be sent again when identical reports were already sent
+     *                      for the same source, type and commit
+     */
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * @return whether reports are queued in the outbox and sent in the background
+     */
+    public boolean isUseOutbox() {
+        return useOutbox;
+    }
+
+    /**
+     * Sets {@link #useOutbox}.
+     *
+     * @param useOutbox {@code true} if reports should be queued in the outbox of the controller and sent in the
+     *                  background, so that the build does not wait for Themis
+     */
+    public void setUseOutbox(boolean useOutbox) {
+        this.useOutbox = useOutbox;
+    }
+
+    /**
+     * @return whether the reports of all types are sent in a single request
+     */
+    public boolean isBatchUpload() {
+        return batchUpload;
+    }
+
+    /**
+     * Sets {@link #batchUpload}.
+     *
+     * @param batchUpload {@code true} if the reports of all types should be sent in a single request; reports are sent
+     *                    in one request per type if the Themis instance does not support it, or if they are sent
+     *                    from the agent or through the outbox
+     */
+    public void setBatchUpload(boolean batchUpload) {
+        this.batchUpload = batchUpload;
+    }
+
+    /**
+     * @return whether XML report files are compacted on the node that holds the workspace before they are sent
+     */
+    public boolean isCompactReports() {
+        return compactReports;
+    }
+
+    /**
+     * Sets {@link #compactReports}.
+     *
+     * @param compactReports {@code true} if the whitespace, comments and processing instructions of XML report files
+     *                       should be dropped before they are archived
+     */
+    public void setCompactReports(boolean compactReports) {
+        this.compactReports = compactReports;
+    }
+
+    @Override
+    boolean isDeferred() {
+        return useOutbox;
+    }
+
     @Override
     void doPerform(ThemisInstance instance, Run<?, ?> run, FilePath workspace,
                    TaskListener listener) {
+        CompletableFuture<Void> completion = doPerformAsync(instance, run, workspace, listener,
+                                                            UUID.randomUUID().toString());
+        try {
+            completion.get();
+        } catch (InterruptedException e) {
+            completion.cancel(true);
+            Thread.currentThread().interrupt();
+            fail(listener, Messages.themisUnknownError(instance.getName()), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            fail(listener, Messages.themisUnknownError(instance.getName()), e.getCause());
+        }
+    }
+
+    private CompletableFuture<Void> doPerformAsync(ThemisInstance instance, Run<?, ?> run, FilePath workspace,
+                                                   TaskListener listener, String uploadId) {
+        ReportMetadata metadata;
         try {
-            JSONObject metadata = getMetadata(run, listener, workspace);
-            reports.entrySet().parallelStream()
-                    .map(e -> sendReport(instance, workspace, copyMetadata(metadata, e.getKey()), e.getValue()))
-                    .forEach(r -> handleResult(listener, r));
+            metadata = new ReportMetadata(getMetadata(run, listener, workspace), DATA_TYPE_ATTRIBUTE);
         } catch (IOException | InterruptedException e) {
             fail(listener, Messages.themisUnknownError(instance.getName()), e);
+            return CompletableFuture.completedFuture(null);
         }
+        List<Report> typeReports = reports.entrySet().stream()
+                .map(e -> new Report(e.getKey(), metadata.forType(e.getKey()), metadata.get(COMMIT_ATTRIBUTE),
+                                     e.getValue(), getIdempotencyKey(uploadId, e.getKey())))
+                .collect(Collectors.toList());
+        // the requests of a job are queued together, so that jobs with many report types do not hold back others
+        Publication publication = new Publication(instance, run.getParent().getFullName());
+        List<CompletableFuture<List<Result>>> results = isBatch(instance, typeReports)
+                ? Collections.singletonList(submitBatch(publication, workspace, metadata, typeReports, uploadId,
+                                                        listener))
+                : typeReports.stream()
+                        .map(r -> submitReport(publication, workspace, r))
+                        .collect(Collectors.toList());
+        CompletableFuture<Void> completion = CompletableFuture
+                .allOf(results.toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> {
+                    Map<String, Timing> timings = recordTimings(instance, run, typeReports);
+                    List<Result> all = results.stream().flatMap(r -> r.join().stream()).collect(Collectors.toList());
+                    // queued reports are pending: a refresh after the reports waits for their delivery
+                    ReportOutcomes.record(run, instance.getName(),
+                                          all.stream().allMatch(r -> r.status != Status.FAILED),
+                                          all.stream()
+                                                  .filter(r -> r.status == Status.QUEUED)
+                                                  .map(r -> r.queuedId)
+                                                  .collect(Collectors.toList()));
+                    all.forEach(result -> handleResult(listener, result, timings.get(result.type)));
+                });
+        completion.whenComplete((v, t) -> {
+            if (completion.isCancelled()) {
+                publication.cancel();
+            }
+        });
+        return completion;
     }
 
-    private void handleResult(TaskListener listener, Result result) {
+    /**
+     * Records the timings of the reports that were sent on the build.
+     *
+     * @return the timings, by report type
+     */
+    private Map<String, Timing> recordTimings(ThemisInstance instance, Run<?, ?> run, List<Report> typeReports) {
+        Map<String, Timing> timings = new HashMap<>();
+        for (Report report : typeReports) {
+            if (report.timings != null && report.timings.isCompleted()) {
+                Timing timing = report.timings.toTiming(instance.getName(), report.getType());
+                ThemisTimingAction.record(run, timing);
+                timings.put(report.getType(), timing);
+            }
+        }
+        return timings;
+    }
+
+    private void handleResult(TaskListener listener, Result result, Timing timing) {
         switch (result.status) {
             case SUCCESS:
                 listener.getLogger().println(Messages.reportSent(result.type));
+                if (timing != null) {
+                    printTiming(listener, timing);
+                }
                 break;
             case ABORTED:
                 listener.getLogger().println(Messages.noReportFiles(result.type));
                 break;
+            case SKIPPED:
+                listener.getLogger().println(Messages.reportUnchanged(result.type));
+                break;
+            case QUEUED:
+                listener.getLogger().println(Messages.reportQueued(result.type));
+                break;
             case FAILED:
                 handleError(listener, result);
                 break;
@@ -169,45 +405,386 @@ public class ThemisReportAction extends ThemisAction {
         return envVars != null ? envVars : run.getEnvironment(listener);
     }
 
-    private JSONObject copyMetadata(JSONObject metadata, String type) {
-        return new JSONObject(metadata, JSONObject.getNames(metadata)).put(DATA_TYPE_ATTRIBUTE, type);
+    private boolean isBatch(ThemisInstance instance, List<Report> typeReports) {
+        Long rejected = BATCH_UNSUPPORTED.get(instance.getUrl());
+        return batchUpload && !useOutbox && !uploadFromAgent && typeReports.size() > 1
+                && (rejected == null || System.currentTimeMillis() - rejected > BATCH_RETRY_DELAY);
     }
 
-    private String getType(JSONObject metadata) {
-        return metadata.getString(DATA_TYPE_ATTRIBUTE);
+    private CompletableFuture<List<Result>> submitReport(Publication publication, FilePath workspace,
+                                                         Report report) {
+        return publication.submit(() -> sendReport(publication, workspace, report)
+                .thenApply(Collections::singletonList));
     }
 
-    private Result sendReport(ThemisInstance instance, FilePath workspace, JSONObject metadata, List<String> paths) {
+    private CompletableFuture<List<Result>> submitBatch(Publication publication, FilePath workspace,
+                                                        ReportMetadata metadata, List<Report> typeReports,
+                                                        String uploadId, TaskListener listener) {
+        return publication.submit(() -> sendBatch(publication, workspace, metadata, typeReports, uploadId,
+                                                  listener));
+    }
+
+    private CompletableFuture<Result> sendReport(Publication publication, FilePath workspace, Report report) {
         try {
-            if (!hasFiles(workspace, paths)) {
-                return new Result(getType(metadata));
+            Result skipped = checkReport(publication.getInstance(), workspace, report);
+            return skipped != null
+                    ? CompletableFuture.completedFuture(skipped)
+                    : sendChecked(publication, workspace, report);
+        } catch (IOException | InterruptedException e) {
+            return CompletableFuture.completedFuture(new Result(report.getType(), e));
+        }
+    }
+
+    private CompletableFuture<List<Result>> sendBatch(Publication publication, FilePath workspace,
+                                                      ReportMetadata metadata, List<Report> typeReports,
+                                                      String uploadId, TaskListener listener) {
+        ThemisInstance instance = publication.getInstance();
+        List<Result> results = new ArrayList<>();
+        List<Report> toSend = new ArrayList<>();
+        for (Report report : typeReports) {
+            try {
+                Result skipped = checkReport(instance, workspace, report);
+                if (skipped != null) {
+                    results.add(skipped);
+                } else {
+                    toSend.add(report);
+                }
+            } catch (IOException | InterruptedException e) {
+                results.add(new Result(report.getType(), e));
+            }
+        }
+        CompletableFuture<List<Result>> sent = toSend.size() > 1
+                ? sendCombined(publication, workspace, metadata, toSend, uploadId, listener)
+                : sendEach(publication, workspace, toSend);
+        return sent.thenApply(s -> {
+            results.addAll(s);
+            return results;
+        });
+    }
+
+    /**
+     * @return the result of the report if it must not be sent, {@code null} otherwise
+     */
+    private Result checkReport(ThemisInstance instance, FilePath workspace, Report report)
+            throws IOException, InterruptedException {
+        report.timings = new UploadTimings();
+        // the files found are digested and archived without looking for them again
+        report.files = workspace.act(new ReportScan(String.join(",", report.paths)));
+        if (report.files.isEmpty()) {
+            return new Result(report.getType());
+        }
+        report.timings.scanned(report.files.size());
+        LOGGER.log(Level.FINE, "Found {0} report files of type {1} ({2} bytes) in {3} ms",
+                   new Object[]{report.files.size(), report.getType(), report.files.getTotalSize(),
+                                report.files.getScanTime()});
+        report.digestKey = getDigestKey(instance, report);
+        if (report.digestKey != null) {
+            report.digest = workspace.act(new ReportDigest(report.files));
+            if (ReportDigestCache.isSent(report.digestKey, report.digest)) {
+                return new Result(report.getType(), Status.SKIPPED);
+            }
+        }
+        return null;
+    }
+
+    private CompletableFuture<Result> sendChecked(Publication publication, FilePath workspace, Report report) {
+        return send(publication, workspace, report).thenApply(r -> recordSent(report, r));
+    }
+
+    private CompletableFuture<List<Result>> sendEach(Publication publication, FilePath workspace,
+                                                     List<Report> typeReports) {
+        List<CompletableFuture<Result>> results = typeReports.stream()
+                .map(r -> sendChecked(publication, workspace, r))
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    private Result recordSent(Report report, Result result) {
+        report.timings.completed();
+        // queued reports may still be dropped by the outbox, which records their digest once they are delivered
+        if (report.digest != null && result.status == Status.SUCCESS) {
+            ReportDigestCache.sent(report.digestKey, report.digest);
+        }
+        return result;
+    }
+
+    private CompletableFuture<List<Result>> sendCombined(Publication publication, FilePath workspace,
+                                                         ReportMetadata metadata, List<Report> typeReports,
+                                                         String uploadId, TaskListener listener) {
+        ThemisInstance instance = publication.getInstance();
+        JSONObject manifest = metadata.copy();
+        List<ReportRequests.WorkspaceArchiveBody> archives = new ArrayList<>();
+        for (Report report : typeReports) {
+            manifest.append(REPORTS_ATTRIBUTE, new JSONObject()
+                    .put(DATA_TYPE_ATTRIBUTE, report.getType())
+                    .put(PART_ATTRIBUTE, ReportRequests.BATCH_ARCHIVE_PART_PREFIX + archives.size()));
+            archives.add(ReportRequests.archiveBody(workspace, report.files,
+                                                    ArchiveOptions.of(instance, compactReports)));
+        }
+        String types = typeReports.stream().map(Report::getType).collect(Collectors.joining(","));
+        String idempotencyKey = getIdempotencyKey(uploadId, BATCH_KEY_PREFIX + types);
+        UploadTimings timings = new UploadTimings();
+        return sendWithRetries(publication, types, timings, deadline -> sendBatchRequest(instance, types,
+                                                                                          idempotencyKey, manifest,
+                                                                                          archives, timings,
+                                                                                          deadline))
+                .thenCompose(result -> {
+                    // the request phases of each report are those of the whole request
+                    typeReports.forEach(r -> r.timings.attempted(timings.getArchiveTime(), timings.getBytes(),
+                                                                 timings.getFirstByteTime()));
+                    if (result.exception != null) {
+                        Exception exception = result.exception;
+                        return CompletableFuture.completedFuture(typeReports.stream()
+                                .map(r -> recordSent(r, new Result(r.getType(), exception)))
+                                .collect(Collectors.toList()));
+                    }
+                    int statusCode = result.statusCode;
+                    ResponseBody body = result.body;
+                    if (isBatchRejected(statusCode, body)) {
+                        if (isBatchUnsupported(statusCode)) {
+                            BATCH_UNSUPPORTED.put(instance.getUrl(), System.currentTimeMillis());
+                        }
+                        listener.getLogger().println(Messages.batchRejected(statusCode));
+                        return sendEach(publication, workspace, typeReports);
+                    }
+                    return CompletableFuture.completedFuture(typeReports.stream()
+                            .map(r -> recordSent(r, new Result(r.getType(), statusCode, body)))
+                            .collect(Collectors.toList()));
+                });
+    }
+
+    private Result sendBatchRequest(ThemisInstance instance, String types, String idempotencyKey, JSONObject manifest,
+                                    List<ReportRequests.WorkspaceArchiveBody> archives, UploadTimings timings,
+                                    RequestDeadline deadline) {
+        HttpPost request = ReportRequests.newBatchRequest(instance.getEndpoints().getBatchReportUrl(sourceKey),
+                                                          instance.getApiKey(), idempotencyKey, manifest.toString(),
+                                                          archives);
+        long start = System.nanoTime();
+        try (RequestDeadline.Registration abort = deadline.register(request::abort);
+             CloseableHttpResponse response = HttpClientUtils.getClient(instance).execute(request)) {
+            timings.responseReceived();
+            long latency = ReportRequests.getResponseLatency(request, start);
+            Throttle.get(instance).onResponse(response);
+            timings.attempted(archives.stream().mapToLong(ReportRequests.WorkspaceArchiveBody::getArchiveTime).sum(),
+                              archives.stream().mapToLong(ReportRequests.WorkspaceArchiveBody::getBytes).sum(),
+                              timings.getFirstByteTime());
+            Result result = new Result(types, response.getStatusLine().getStatusCode(),
+                                       ResponseBody.read(response, instance.getMaxErrorBodySize()));
+            timings.responseRead();
+            LOGGER.log(Level.FINE, "Sent reports of types {0} to {1}: {2}",
+                       new Object[]{types, instance.getName(), timings});
+            return recordLoad(instance, RequestType.BATCH_REPORT, start, latency, result);
+        } catch (IOException e) {
+            return recordLoad(instance, RequestType.BATCH_REPORT, start, -1, new Result(types, e));
+        }
+    }
+
+    private boolean isBatchRejected(int statusCode, ResponseBody body) {
+        // e.g., the batch is too large, or not supported by an older Themis instance; other bad requests would be
+        // rejected as well when sent one type at a time
+        return statusCode == 413 || statusCode == 415 || isBatchUnsupported(statusCode)
+                || statusCode == 400 && body.containsIgnoreCase(BATCH_ENDPOINT);
+    }
+
+    private boolean isBatchUnsupported(int statusCode) {
+        return statusCode == 404 || statusCode == 405 || statusCode == 501;
+    }
+
+    private CompletableFuture<Result> send(Publication publication, FilePath workspace, Report report) {
+        ThemisInstance instance = publication.getInstance();
+        if (useOutbox) {
+            try {
+                // the idempotency key is the id of the entry, so that an upload performed again is queued once
+                String queuedId = ReportOutbox.get().offer(instance, report.idempotencyKey, sourceKey,
+                                                           new String(report.metadata, StandardCharsets.UTF_8),
+                                                           workspace, report.files, compactReports, report.digestKey,
+                                                           report.digest);
+                if (queuedId != null) {
+                    return CompletableFuture.completedFuture(new Result(report.type, queuedId));
+                }
+            } catch (IOException | InterruptedException e) {
+                return CompletableFuture.completedFuture(new Result(report.type, e));
             }
-            return archiveAndSend(instance, workspace, metadata, paths);
+            LOGGER.log(Level.WARNING, "Themis outbox is full, sending reports directly");
+        }
+        // the archive is written again for each attempt, so that the upload can be replayed
+        return sendWithRetries(publication, report.type, report.timings, deadline -> uploadFromAgent
+                ? sendFromAgent(instance, workspace, report, deadline)
+                : archiveAndSend(instance, workspace, report, deadline));
+    }
+
+    /**
+     * Sends reports, attempting again as allowed by the retry policy of the instance. The first attempt runs on the
+     * current thread; the next ones are submitted to the {@link UploadExecutor} once their delay has elapsed, so that
+     * no thread is held while waiting. The request timeout of the instance covers all the attempts and the delays
+     * between them.
+     *
+     * @return a future completed with the result of the last attempt
+     */
+    private CompletableFuture<Result> sendWithRetries(Publication publication, String type, UploadTimings timings,
+                                                      Attempt attempt) {
+        RequestDeadline deadline = new RequestDeadline(publication.getInstance().getRequestTimeout());
+        CompletableFuture<Result> result = sendAttempt(publication, type, timings, attempt, deadline, 1);
+        result.whenComplete((r, t) -> deadline.close());
+        return result;
+    }
+
+    private CompletableFuture<Result> sendAttempt(Publication publication, String type, UploadTimings timings,
+                                                  Attempt attempt, RequestDeadline deadline, int i) {
+        ThemisInstance instance = publication.getInstance();
+        RetryPolicy policy = instance.getRetryPolicy();
+        CircuitBreaker breaker = CircuitBreaker.get(instance);
+        if (deadline.isExpired()) {
+            // e.g., the attempt waited for too long in the queue of the instance
+            return CompletableFuture.completedFuture(new Result(type, deadline.newTimeoutException()));
+        }
+        long pause = Throttle.get(instance).getRemainingPause();
+        if (pause > 0) {
+            LOGGER.log(Level.FINE, "Requests to {0} are paused for {1} ms, as requested by the instance",
+                       new Object[]{instance.getName(), pause});
+            // the attempt stays queued in the executor until the pause ends, without holding a thread
+            return publication.submit(() -> sendAttempt(publication, type, timings, attempt, deadline, i));
+        }
+        if (!breaker.tryAcquire()) {
+            // e.g., the requests of other builds failed while the reports were queued or waiting for this attempt
+            return CompletableFuture.completedFuture(
+                    new Result(type, new IOException(Messages.instanceUnavailable(instance.getName()))));
+        }
+        Result result;
+        try {
+            timings.attemptStarted();
+            result = attempt.send(deadline);
         } catch (IOException | InterruptedException | ExecutionException e) {
-            return new Result(getType(metadata), e);
+            result = new Result(type, e);
         }
+        if (deadline.isExpired() && result.status == Status.FAILED) {
+            // reports the expiry rather than the failure caused by aborting the attempt
+            result = new Result(type, deadline.newTimeoutException());
+        }
+        if (isUnavailable(policy, result)) {
+            breaker.onFailure();
+        } else if (result.statusCode > 0) {
+            breaker.onSuccess();
+        } else {
+            // e.g., the archive could not be written: the request did not reach the instance
+            breaker.release();
+        }
+        if (!policy.hasAttemptsLeft(i) || !isRetryable(policy, result)
+                || breaker.getState() == CircuitBreaker.State.OPEN) {
+            return CompletableFuture.completedFuture(result);
+        }
+        long delay = policy.getDelay(i);
+        if (delay >= deadline.getRemaining()) {
+            return CompletableFuture.completedFuture(result);
+        }
+        LOGGER.log(Level.INFO, "Attempt {0} to send reports of type {1} to {2} failed, retrying in {3} ms",
+                   new Object[]{i, result.type, instance.getName(), delay});
+        return publication.schedule(() -> sendAttempt(publication, type, timings, attempt, deadline, i + 1), delay);
+    }
+
+    private boolean isUnavailable(RetryPolicy policy, Result result) {
+        // failures of the instance itself, unlike, e.g., errors while archiving or rejected reports
+        if (result.exception != null) {
+            return policy.isRetryable(result.exception) || result.exception instanceof TimeoutException;
+        }
+        return result.statusCode >= 500;
+    }
+
+    private boolean isRetryable(RetryPolicy policy, Result result) {
+        if (result.status != Status.FAILED) {
+            return false;
+        }
+        return result.exception != null ? policy.isRetryable(result.exception) : policy.isRetryable(result.statusCode);
+    }
+
+    private String getDigestKey(ThemisInstance instance, Report report) {
+        return skipUnchanged && report.commit != null
+                ? ReportDigestCache.key(instance.getName(), sourceKey, report.type, report.commit)
+                : null;
     }
 
-    private boolean hasFiles(FilePath workspace, List<String> paths) throws IOException, InterruptedException {
-        return workspace.list(String.join(",", paths)).length > 0;
+    private Result sendFromAgent(ThemisInstance instance, FilePath workspace, Report report, RequestDeadline deadline)
+            throws InterruptedException {
+        UploadTimings timings = report.timings;
+        // the agent aborts the request once the time left to send the reports has elapsed
+        long requestTimeout = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(deadline.getRemaining() + 999));
+        AgentReportUpload upload = new AgentReportUpload(getReportUrl(instance), instance.getApiKey(),
+                                                         report.idempotencyKey, report.metadata, report.files,
+                                                         compactReports, HttpClientUtils.getProxySettings(), instance,
+                                                         requestTimeout);
+        long start = System.nanoTime();
+        try {
+            AgentReportUpload.Response response = workspace.act(upload);
+            Throttle.get(instance).pause(response.getPause());
+            timings.responseRead();
+            timings.attempted(response.getArchiveTime(), response.getBytes(), response.getFirstByteTime());
+            logTimings(instance, report.type, timings);
+            return recordLoad(instance, RequestType.AGENT_REPORT, start, response.getLatency(),
+                              new Result(report.type, response.getStatusCode(), response.getBody()));
+        } catch (IOException e) {
+            return recordLoad(instance, RequestType.AGENT_REPORT, start, -1, new Result(report.type, e));
+        }
     }
 
-    private Result archiveAndSend(ThemisInstance instance, FilePath workspace, JSONObject metadata, List<String> paths)
+    private Result archiveAndSend(ThemisInstance instance, FilePath workspace, Report report,
+                                  RequestDeadline deadline)
             throws IOException, ExecutionException, InterruptedException {
+        if (instance.isSpoolArchives()) {
+            return spoolAndSend(instance, workspace, report, deadline);
+        }
+        UploadTimings timings = report.timings;
         try (PipedOutputStream outputStream = new PipedOutputStream();
-             PipedInputStream inputStream = new PipedInputStream()) {
+             ArchiveInputStream inputStream = new ArchiveInputStream(instance.getPipeBufferSize() * KB)) {
             outputStream.connect(inputStream);
-            ExecutorService executor = Executors.newFixedThreadPool(2);
-
-            Future<Result> sendArchiveTask = submitSendArchiveTask(executor, inputStream, instance, metadata);
-            Future<Exception> archiveTask = submitArchiveTask(executor, sendArchiveTask, outputStream, workspace,
-                                                              paths);
+            Future<?> archiveTask = submitArchiveTask(outputStream, inputStream, workspace, report.files,
+                                                      ArchiveOptions.of(instance, compactReports), timings);
+            HttpPost request = ReportRequests.newRequest(getReportUrl(instance), instance.getApiKey(),
+                                                         report.idempotencyKey, report.metadata,
+                                                         ReportRequests.archiveBody(inputStream));
+            try (RequestDeadline.Registration abortRequest = deadline.register(request::abort);
+                 RequestDeadline.Registration abortArchive = deadline.register(() -> archiveTask.cancel(true))) {
+                Result result = sendArchive(instance, report.type, request, timings);
+                // stops the archive task if the request ended before the whole archive was read
+                inputStream.close();
+                try {
+                    archiveTask.get();
+                } catch (CancellationException e) {
+                    // cancelled by the deadline, reported below
+                }
+                logTimings(instance, report.type, timings);
+                return deadline.isExpired()
+                        ? new Result(report.type, deadline.newTimeoutException())
+                        : checkResult(report.type, inputStream.getFailure(), result);
+            } finally {
+                archiveTask.cancel(true);
+            }
+        }
+    }
 
-            try {
-                return checkResult(getType(metadata), archiveTask.get(), sendArchiveTask.get());
-            } catch (CancellationException e) {
-                return new Result(getType(metadata), e);
+    private Result spoolAndSend(ThemisInstance instance, FilePath workspace, Report report,
+                                RequestDeadline deadline) throws IOException, InterruptedException {
+        UploadTimings timings = report.timings;
+        File spool = File.createTempFile("themis-report", ".zip");
+        try {
+            // writing the archive fails once the deadline has expired, since it runs on the current thread
+            try (OutputStream outputStream = deadline.guard(new BufferedOutputStream(new FileOutputStream(spool)))) {
+                ReportArchiver.zip(workspace, outputStream, report.files, ArchiveOptions.of(instance, compactReports));
+            } catch (IOException e) {
+                return new Result(report.type, e);
             }
+            timings.archived(spool.length());
+            // the request is built once the archive is written, since its length is computed when it is built
+            HttpPost request = ReportRequests.newRequest(getReportUrl(instance), instance.getApiKey(),
+                                                         report.idempotencyKey, report.metadata,
+                                                         ReportRequests.archiveBody(spool));
+            try (RequestDeadline.Registration abort = deadline.register(request::abort)) {
+                Result result = sendArchive(instance, report.type, request, timings);
+                logTimings(instance, report.type, timings);
+                return deadline.isExpired() ? new Result(report.type, deadline.newTimeoutException()) : result;
+            }
+        } finally {
+            Files.deleteIfExists(spool.toPath());
         }
     }
 
@@ -215,53 +792,103 @@ public class ThemisReportAction extends ThemisAction {
         return exception == null ? result : new Result(type, exception);
     }
 
-    private Future<Exception> submitArchiveTask(ExecutorService executor,
-                                                Future<?> requestFuture,
-                                                PipedOutputStream outputStream,
-                                                FilePath workspace,
-                                                List<String> paths) {
-        return executor.submit(() -> {
+    private Future<?> submitArchiveTask(PipedOutputStream outputStream,
+                                        ArchiveInputStream inputStream,
+                                        FilePath workspace,
+                                        ScannedFiles files,
+                                        ArchiveOptions options,
+                                        UploadTimings timings) {
+        return UploadExecutor.get().submitArchiver(() -> {
             try {
-                workspace.zip(outputStream, String.join(",", paths));
-                return null;
+                // writes to the pipe in blocks rather than in the small chunks of the zip archiver, for fewer handoffs
+                CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(outputStream));
+                ReportArchiver.zip(workspace, counter, files, options);
+                timings.archived(counter.getByteCount());
             } catch (IOException | InterruptedException e) {
-                requestFuture.cancel(true);
+                inputStream.fail(e);
                 outputStream.close();
-                return e;
             }
+            return null;
         });
     }
 
-    private Future<Result> submitSendArchiveTask(ExecutorService executor, PipedInputStream inputStream,
-                                                 ThemisInstance instance, JSONObject metadata) {
-        return executor.submit(() -> {
-            try (CloseableHttpClient client = HttpClientUtils.getClient();
-                 CloseableHttpResponse response = sendArchive(client, instance, metadata, inputStream)) {
-                int statusCode = response.getStatusLine().getStatusCode();
-                String body = EntityUtils.toString(response.getEntity());
-                return new Result(getType(metadata), statusCode, body);
-            }
-        });
+    private Result sendArchive(ThemisInstance instance, String type, HttpPost request, UploadTimings timings) {
+        long start = System.nanoTime();
+        try (CloseableHttpResponse response = HttpClientUtils.getClient(instance).execute(request)) {
+            timings.responseReceived();
+            long latency = ReportRequests.getResponseLatency(request, start);
+            Throttle.get(instance).onResponse(response);
+            int statusCode = response.getStatusLine().getStatusCode();
+            ResponseBody body = ResponseBody.read(response, instance.getMaxErrorBodySize());
+            timings.responseRead();
+            return recordLoad(instance, RequestType.REPORT, start, latency, new Result(type, statusCode, body));
+        } catch (IOException e) {
+            return recordLoad(instance, RequestType.REPORT, start, -1, new Result(type, e));
+        }
     }
 
-    private CloseableHttpResponse sendArchive(CloseableHttpClient client, ThemisInstance instance, JSONObject metadata,
-                                              InputStream inputStream)
-            throws IOException {
-        String url = MessageFormat.format(REPORT_URL_FORMAT, instance.getUrl(), sourceKey);
+    /**
+     * Records the outcome of a request, for the concurrency of the requests to the instance to adapt to its load.
+     *
+     * @param latency the time Themis took to respond once the request body was sent, in milliseconds, or -1 if the
+     *                request failed
+     * @return the result
+     */
+    private Result recordLoad(ThemisInstance instance, RequestType type, long start, long latency, Result result) {
+        AdaptiveConcurrency concurrency = AdaptiveConcurrency.get(instance);
+        if (result.exception == null) {
+            concurrency.onResponse(type, start, latency, result.statusCode);
+        } else if (isUnavailable(instance.getRetryPolicy(), result)) {
+            concurrency.onDropped(start);
+        }
+        return result;
+    }
 
-        HttpPost request = new HttpPost(url);
-        request.setHeader(ThemisGlobalConfiguration.THEMIS_API_KEY, instance.getApiKey());
-        request.setEntity(getArchiveEntity(metadata, inputStream));
+    private void logTimings(ThemisInstance instance, String type, UploadTimings timings) {
+        LOGGER.log(Level.FINE, "Sent reports of type {0} to {1}: {2}",
+                   new Object[]{type, instance.getName(), timings});
+    }
 
-        return client.execute(request);
+    private String getReportUrl(ThemisInstance instance) {
+        return instance.getEndpoints().getReportUrl(sourceKey);
     }
 
-    private HttpEntity getArchiveEntity(JSONObject metadata, InputStream inputStream) {
-        return MultipartEntityBuilder
-                .create()
-                .addBinaryBody("archive", inputStream, ContentType.create("application/zip"), "archive.zip")
-                .addTextBody("metadata", metadata.toString(), ContentType.APPLICATION_JSON)
-                .build();
+    /**
+     * @return the idempotency key of a request of an upload, identical each time the upload is performed
+     */
+    private static String getIdempotencyKey(String uploadId, String request) {
+        return UUID.nameUUIDFromBytes((uploadId + "/" + request).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * The report files of a type, with their metadata and the commit they were built from, the files found in the
+     * workspace, the digest computed when checking whether they changed, and the timings of their publication.
+     */
+    private static final class Report {
+
+        private final String type;
+        // the metadata of the reports of the type, as UTF-8 encoded JSON
+        private final byte[] metadata;
+        private final String commit;
+        private final List<String> paths;
+        private final String idempotencyKey;
+        private UploadTimings timings;
+        private ScannedFiles files;
+        private String digestKey;
+        private String digest;
+
+        private Report(String type, byte[] metadata, String commit, List<String> paths, String idempotencyKey) {
+            this.type = type;
+            this.metadata = metadata;
+            this.commit = commit;
+            this.paths = paths;
+            this.idempotencyKey = idempotencyKey;
+        }
+
+        private String getType() {
+            return type;
+        }
+
     }
 
     private static final class Result {
@@ -269,33 +896,106 @@ public class ThemisReportAction extends ThemisAction {
         private final String type;
         private final Status status;
         private final int statusCode;
-        private final String body;
+        private final ResponseBody body;
         private final Exception exception;
+        // the id of the outbox entry, if the reports were queued
+        private final String queuedId;
 
-        private Result(String type, Status status, int statusCode, String body, Exception exception) {
+        private Result(String type, Status status, int statusCode, ResponseBody body, Exception exception,
+                       String queuedId) {
             this.type = type;
             this.status = status;
             this.statusCode = statusCode;
             this.body = body;
             this.exception = exception;
+            this.queuedId = queuedId;
         }
 
         private Result(String type) {
-            this(type, Status.ABORTED, -1, null, null);
+            this(type, Status.ABORTED);
         }
 
-        private Result(String type, int statusCode, String body) {
-            this(type, statusCode == 200 ? Status.SUCCESS : Status.FAILED, statusCode, body, null);
+        private Result(String type, Status status) {
+            this(type, status, -1, null, null, null);
+        }
+
+        private Result(String type, String queuedId) {
+            this(type, Status.QUEUED, -1, null, null, queuedId);
+        }
+
+        private Result(String type, int statusCode, ResponseBody body) {
+            this(type, statusCode == 200 ? Status.SUCCESS : Status.FAILED, statusCode, body, null, null);
         }
 
         private Result(String type, Exception exception) {
-            this(type, Status.FAILED, -1, null, exception);
+            this(type, Status.FAILED, -1, null, exception, null);
+        }
+
+    }
+
+    /**
+     * The reading end of the pipe between the archive task and the request, that makes the request fail instead of
+     * sending a truncated archive when the archive task fails.
+     */
+    private static final class ArchiveInputStream extends PipedInputStream {
+
+        private volatile Exception failure;
+        private volatile boolean closed;
+
+        private ArchiveInputStream(int pipeSize) {
+            super(pipeSize);
+        }
+
+        private void fail(Exception exception) {
+            if (!closed) {
+                failure = exception;
+            }
+        }
+
+        private Exception getFailure() {
+            return failure;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            int b = super.read();
+            checkFailure();
+            return b;
         }
 
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            checkFailure();
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+
+        private void checkFailure() throws IOException {
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+        }
+
+    }
+
+    /**
+     * An attempt to send reports, that can be repeated.
+     */
+    @FunctionalInterface
+    private interface Attempt {
+
+        Result send(RequestDeadline deadline) throws IOException, InterruptedException, ExecutionException;
+
     }
 
     private enum Status {
-        SUCCESS, ABORTED, FAILED
+        SUCCESS, QUEUED, ABORTED, SKIPPED, FAILED
     }
 
 }
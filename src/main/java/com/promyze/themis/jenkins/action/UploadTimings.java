@@ -0,0 +1,118 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.ThemisTimingAction.Timing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time spent in each phase of a request to Themis: looking for the report files in the workspace, archiving them,
+ * sending the request until the first byte of the response is received, and reading the response. The scan and the
+ * total are measured from the start of the publication, across all attempts, while the other phases are measured from
+ * the start of the last attempt. Archiving overlaps with sending the request since the archive is streamed.
+ */
+final class UploadTimings {
+
+    private final long start = System.nanoTime();
+    private volatile long scanned;
+    private volatile int files;
+    private volatile long attemptStart = start;
+    private volatile long archiveTime = -1;
+    private volatile long bytes = -1;
+    private volatile long firstByteTime = -1;
+    private volatile long responseRead;
+    private volatile long completed;
+
+    void scanned(int scannedFiles) {
+        scanned = System.nanoTime();
+        files = scannedFiles;
+    }
+
+    void attemptStarted() {
+        attemptStart = System.nanoTime();
+        archiveTime = -1;
+        bytes = -1;
+        firstByteTime = -1;
+        responseRead = 0;
+    }
+
+    void archived(long archiveBytes) {
+        archiveTime = elapsed(attemptStart, System.nanoTime());
+        bytes = archiveBytes;
+    }
+
+    /**
+     * Records the phases of an attempt that was made on another node, or in another request.
+     */
+    void attempted(long attemptArchiveTime, long attemptBytes, long attemptFirstByteTime) {
+        archiveTime = attemptArchiveTime;
+        bytes = attemptBytes;
+        firstByteTime = attemptFirstByteTime;
+    }
+
+    void responseReceived() {
+        firstByteTime = elapsed(attemptStart, System.nanoTime());
+    }
+
+    void responseRead() {
+        responseRead = System.nanoTime();
+    }
+
+    void completed() {
+        completed = System.nanoTime();
+    }
+
+    boolean isCompleted() {
+        return completed != 0;
+    }
+
+    /**
+     * @return the time spent archiving the report files, in milliseconds, or -1 if unknown
+     */
+    long getArchiveTime() {
+        return archiveTime;
+    }
+
+    /**
+     * @return the size of the archive, in bytes, or -1 if unknown
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the time until the first byte of the response was received, in milliseconds, or -1 if unknown
+     */
+    long getFirstByteTime() {
+        return firstByteTime;
+    }
+
+    /**
+     * @return the time spent reading the response, in milliseconds, or -1 if unknown
+     */
+    long getResponseTime() {
+        return firstByteTime < 0 || responseRead == 0
+                ? -1
+                : elapsed(attemptStart, responseRead) - firstByteTime;
+    }
+
+    /**
+     * @param instanceName the name of the Themis instance
+     * @param key          what the request was about, e.g., a report type or a project key
+     * @return the timing to record on the build
+     */
+    Timing toTiming(String instanceName, String key) {
+        return new Timing(instanceName, key, scanned == 0 ? -1 : elapsed(start, scanned), files, archiveTime,
+                          bytes, firstByteTime, elapsed(start, completed == 0 ? System.nanoTime() : completed));
+    }
+
+    private static long elapsed(long from, long to) {
+        return TimeUnit.NANOSECONDS.toMillis(to - from);
+    }
+
+    @Override
+    public String toString() {
+        return "archive " + archiveTime + " ms (" + bytes + " bytes), first response byte " + firstByteTime
+                + " ms, response " + getResponseTime() + " ms";
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.AdaptiveConcurrency.RequestType;
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveConcurrencyTest {
+
+    private ThemisInstance instance;
+    private AdaptiveConcurrency concurrency;
+
+    @Before
+    public void setupConcurrency() {
+        instance = new ThemisInstance("instance", "http://localhost", "apiKey");
+        instance.setMaxConcurrentUploads(8);
+        concurrency = AdaptiveConcurrency.get(instance);
+    }
+
+    @After
+    public void dropConcurrency() {
+        AdaptiveConcurrency.retain(Collections.emptySet());
+    }
+
+    @Test
+    public void testSameConcurrencyForInstance() {
+        assertThat(AdaptiveConcurrency.get(instance)).isSameAs(concurrency);
+        assertThat(concurrency.getLimit()).isEqualTo(8);
+    }
+
+    @Test
+    public void testLimitKeptForReplacedInstance() {
+        concurrency.onDropped(System.nanoTime());
+        ThemisInstance replaced = new ThemisInstance("instance", "http://localhost", "apiKey");
+        replaced.setMaxConcurrentUploads(8);
+
+        AdaptiveConcurrency.retain(Collections.singleton("instance"));
+
+        assertThat(AdaptiveConcurrency.get(replaced).getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    public void testThrottledReducesOncePerRound() {
+        long sentBefore = System.nanoTime();
+
+        concurrency.onResponse(RequestType.REPORT, sentBefore, 10, 429);
+        concurrency.onResponse(RequestType.REPORT, sentBefore, 10, 503);
+
+        assertThat(concurrency.getLimit()).isEqualTo(4);
+
+        concurrency.onDropped(System.nanoTime());
+
+        assertThat(concurrency.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFlatLatencyIncreases() {
+        concurrency.onResponse(RequestType.REPORT, System.nanoTime(), 10, 429);
+
+        for (int i = 0; i < 5; i++) {
+            concurrency.onResponse(RequestType.REPORT, System.nanoTime(), 100, 200);
+        }
+
+        assertThat(concurrency.getLimit()).isEqualTo(5);
+
+        for (int i = 0; i < 100; i++) {
+            concurrency.onResponse(RequestType.REPORT, System.nanoTime(), 100, 200);
+        }
+
+        assertThat(concurrency.getLimit()).isEqualTo(8);
+    }
+
+    @Test
+    public void testLatencyRiseReduces() {
+        for (int i = 0; i < 10; i++) {
+            concurrency.onResponse(RequestType.REFRESH, System.nanoTime(), 100, 200);
+        }
+        // another type of request, with its own latency
+        concurrency.onResponse(RequestType.REPORT, System.nanoTime(), 5000, 200);
+
+        assertThat(concurrency.getLimit()).isEqualTo(8);
+
+        concurrency.onResponse(RequestType.REFRESH, System.nanoTime(), 1000, 200);
+
+        assertThat(concurrency.getLimit()).isEqualTo(7);
+    }
+
+    @Test
+    public void testFixedConcurrency() {
+        instance.setFixedConcurrency(true);
+        concurrency = AdaptiveConcurrency.get(instance);
+
+        concurrency.onResponse(RequestType.REPORT, System.nanoTime(), 10, 429);
+
+        assertThat(concurrency.getLimit()).isEqualTo(8);
+    }
+
+}
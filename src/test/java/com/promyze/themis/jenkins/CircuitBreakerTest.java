@@ -0,0 +1,144 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.CircuitBreaker.State;
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+    private ThemisInstance instance;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setupBreaker() {
+        instance = new ThemisInstance("instance", "http://localhost", "apiKey");
+        instance.setCircuitFailureThreshold(3);
+        breaker = CircuitBreaker.get(instance);
+    }
+
+    @After
+    public void dropBreaker() {
+        CircuitBreaker.retain(Collections.emptySet());
+    }
+
+    @Test
+    public void testSameBreakerForInstance() {
+        assertThat(CircuitBreaker.get(instance)).isSameAs(breaker);
+    }
+
+    @Test
+    public void testSameBreakerForReplacedInstance() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        ThemisInstance replaced = new ThemisInstance("instance", "http://localhost", "apiKey");
+        replaced.setCircuitFailureThreshold(5);
+
+        CircuitBreaker.retain(Collections.singleton("instance"));
+
+        assertThat(CircuitBreaker.get(replaced)).isSameAs(breaker);
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+
+        CircuitBreaker.retain(Collections.emptySet());
+
+        assertThat(CircuitBreaker.get(replaced)).isNotSameAs(breaker);
+    }
+
+    @Test
+    public void testOpenAfterConsecutiveFailures() {
+        breaker.onFailure();
+        breaker.onFailure();
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.getConsecutiveFailures()).isEqualTo(1);
+    }
+
+    @Test
+    public void testOpenAfterFailureRate() {
+        for (int i = 0; i < 10; i++) {
+            breaker.onSuccess();
+            breaker.onFailure();
+        }
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    public void testHalfOpenProbe() throws InterruptedException {
+        instance.setCircuitOpenDuration(1);
+        breaker = CircuitBreaker.get(instance);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        Thread.sleep(1100);
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        breaker.onSuccess();
+
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void testReleasedProbe() throws InterruptedException {
+        instance.setCircuitOpenDuration(1);
+        breaker = CircuitBreaker.get(instance);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        Thread.sleep(1100);
+
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        breaker.release();
+
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        assertThat(breaker.getConsecutiveFailures()).isEqualTo(3);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void testAvailableWithoutProbe()throws InterruptedException {
+        instance.setCircuitOpenDuration(1);
+        breaker = CircuitBreaker.get(instance);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        assertThat(breaker.isAvailable()).isFalse();
+
+        Thread.sleep(1100);
+
+        assertThat(breaker.isAvailable()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.isAvailable()).isFalse();
+    }
+
+}
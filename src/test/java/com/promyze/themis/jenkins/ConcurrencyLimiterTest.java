@@ -0,0 +1,127 @@
+package com.promyze.themis.jenkins;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrencyLimiterTest {
+
+    private List<Runnable> dispatched;
+    private List<String> executed;
+    private ConcurrencyLimiter limiter;
+
+    @Before
+    public void setupLimiter() {
+        dispatched = new ArrayList<>();
+        executed = new ArrayList<>();
+        limiter = new ConcurrencyLimiter(dispatched::add, 2);
+    }
+
+    @Test
+    public void testSubmitUnderLimit() {
+        limiter.submit(() -> executed.add("a"));
+        limiter.submit(() -> executed.add("b"));
+
+        assertThat(dispatched).hasSize(2);
+        assertThat(limiter.getRunning()).isEqualTo(2);
+        assertThat(limiter.getPending()).isZero();
+    }
+
+    @Test
+    public void testSubmitOverLimit() {
+        limiter.submit(() -> executed.add("a"));
+        limiter.submit(() -> executed.add("b"));
+        limiter.submit(() -> executed.add("c"));
+
+        assertThat(dispatched).hasSize(2);
+        assertThat(limiter.getPending()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPauseQueuesTasks() {
+        assertThat(limiter.pause()).isTrue();
+        assertThat(limiter.pause()).isFalse();
+
+        limiter.submit(() -> executed.add("a"));
+        limiter.submit(() -> executed.add("b"));
+        limiter.submit(() -> executed.add("c"));
+
+        assertThat(dispatched).isEmpty();
+        assertThat(limiter.getPending()).isEqualTo(3);
+
+        limiter.resume();
+
+        assertThat(dispatched).hasSize(2);
+        assertThat(limiter.isPaused()).isFalse();
+        assertThat(limiter.getPending()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPendingDispatchedInOrder() {
+        limiter.submit(() -> executed.add("a"));
+        limiter.submit(() -> executed.add("b"));
+        limiter.submit(() -> executed.add("c"));
+        limiter.submit(() -> executed.add("d"));
+
+        dispatched.get(0).run();
+        dispatched.get(1).run();
+        dispatched.get(2).run();
+        dispatched.get(3).run();
+
+        assertThat(executed).containsExactly("a", "b", "c", "d");
+        assertThat(limiter.getRunning()).isZero();
+        assertThat(limiter.getPending()).isZero();
+    }
+
+    @Test
+    public void testPendingDispatchedInTurnPerQueue() {
+        limiter.submit("job1", () -> executed.add("a"));
+        limiter.submit("job1", () -> executed.add("b"));
+        limiter.submit("job1", () -> executed.add("c"));
+        limiter.submit("job1", () -> executed.add("d"));
+        limiter.submit("job1", () -> executed.add("e"));
+        limiter.submit("job2", () -> executed.add("f"));
+
+        for (int i = 0; i < 6; i++) {
+            dispatched.get(i).run();
+        }
+
+        assertThat(executed).containsExactly("a", "b", "c", "f", "d", "e");
+        assertThat(limiter.getPending()).isZero();
+    }
+
+    @Test
+    public void testReleaseWhenTaskFails() {
+        limiter.submit(() -> {
+            throw new IllegalStateException();
+        });
+        limiter.submit(() -> executed.add("b"));
+        limiter.submit(() -> executed.add("c"));
+
+        try {
+            dispatched.get(0).run();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertThat(dispatched).hasSize(3);
+        assertThat(limiter.getPending()).isZero();
+    }
+
+    @Test
+    public void testIncreaseLimit() {
+        limiter.submit(() -> executed.add("a"));
+        limiter.submit(() -> executed.add("b"));
+        limiter.submit(() -> executed.add("c"));
+
+        limiter.setLimit(3);
+
+        assertThat(dispatched).hasSize(3);
+        assertThat(limiter.getRunning()).isEqualTo(3);
+    }
+
+}
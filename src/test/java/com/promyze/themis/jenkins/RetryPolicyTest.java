@@ -0,0 +1,55 @@
+package com.promyze.themis.jenkins;
+
+import org.apache.http.NoHttpResponseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(3, 1000, new HashSet<>(Arrays.asList(502, 503)));
+
+    @Test
+    public void testParseStatuses() {
+        assertThat(RetryPolicy.parseStatuses(" 502, 503,,504")).containsOnly(502, 503, 504);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseInvalidStatuses() {
+        RetryPolicy.parseStatuses("502,abc");
+    }
+
+    @Test
+    public void testHasAttemptsLeft() {
+        assertThat(policy.hasAttemptsLeft(2)).isTrue();
+        assertThat(policy.hasAttemptsLeft(3)).isFalse();
+    }
+
+    @Test
+    public void testIsRetryableStatus() {
+        assertThat(policy.isRetryable(503)).isTrue();
+        assertThat(policy.isRetryable(500)).isFalse();
+    }
+
+    @Test
+    public void testIsRetryableException() {
+        assertThat(policy.isRetryable(new ConnectException())).isTrue();
+        assertThat(policy.isRetryable(new NoHttpResponseException("closed"))).isTrue();
+        assertThat(policy.isRetryable(new UnknownHostException())).isFalse();
+        assertThat(policy.isRetryable(new IOException())).isFalse();
+    }
+
+    @Test
+    public void testGetDelay() {
+        assertThat(policy.getDelay(1)).isBetween(500L, 1000L);
+        assertThat(policy.getDelay(3)).isBetween(2000L, 4000L);
+        assertThat(policy.getDelay(30)).isBetween(15000L, 30000L);
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.promyze.themis.jenkins;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ThemisEndpointsTest {
+
+    private final ThemisEndpoints endpoints = new ThemisEndpoints("http://themis:8080");
+
+    @Test
+    public void testGetReportUrl() {
+        assertThat(endpoints.getReportUrl("source")).isEqualTo("http://themis:8080/api/reportFiles/source");
+        assertThat(endpoints.getBatchReportUrl("source"))
+                .isEqualTo("http://themis:8080/api/reportFiles/source/batch");
+    }
+
+    @Test
+    public void testGetRefreshUrl() {
+        assertThat(endpoints.getRefreshUrl("project")).isEqualTo("http://themis:8080/api/refreshProject/project");
+        assertThat(endpoints.getRefreshStatusUrl("project"))
+                .isEqualTo("http://themis:8080/api/refreshStatus/project");
+    }
+
+    @Test
+    public void testGetTestConnectionUrl() {
+        assertThat(endpoints.getTestConnectionUrl()).isEqualTo("http://themis:8080/api/testConnection");
+    }
+
+}
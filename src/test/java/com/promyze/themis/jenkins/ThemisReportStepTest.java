@@ -0,0 +1,149 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import com.promyze.themis.jenkins.action.ThemisReportAction;
+import com.promyze.themis.jenkins.test.MockThemis;
+import com.promyze.themis.jenkins.test.MockThemis.ReportHandler;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.promyze.themis.jenkins.test.MockThemis.response;
+import static com.promyze.themis.jenkins.test.ThemisAssertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ThemisReportStepTest {
+
+    private static final String INSTANCE_NAME = "instance";
+    private static final String API_KEY = "apiKey";
+    private static final String SOURCE_KEY = "sourceKey";
+    private static final String PATH = "/api/reportFiles/" + SOURCE_KEY;
+    private static final String TYPE = "type";
+    private static final long TIMEOUT = 10000;
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MockThemis themis;
+    private ThemisReportStep step;
+    private StepContext context;
+
+    @Before
+    public void setupStep() throws IOException, InterruptedException {
+        themis = new MockThemis();
+        int port = themis.start();
+        GlobalConfiguration.all().get(ThemisGlobalConfiguration.class).setInstances(Collections.singletonList(
+                new ThemisInstance(INSTANCE_NAME, "http://localhost:" + port, API_KEY)));
+
+        File workspace = temporaryFolder.newFolder("workspace");
+        Files.write(new File(workspace, "report.xml").toPath(), "<report/>".getBytes(StandardCharsets.UTF_8));
+        Map<String, String> report = new HashMap<>();
+        report.put(ThemisReportAction.TYPE_KEY, TYPE);
+        report.put(ThemisReportAction.PATH_KEY, "*.xml");
+        step = new ThemisReportStep(INSTANCE_NAME, SOURCE_KEY);
+        step.setReports(Collections.singletonList(report));
+
+        Job<?, ?> job = mock(Job.class);
+        when(job.getFullName()).thenReturn("job");
+        Run<?, ?> run = mock(Run.class);
+        doReturn(job).when(run).getParent();
+        TaskListener listener = mock(TaskListener.class);
+        when(listener.getLogger()).thenReturn(mock(PrintStream.class));
+        context = mock(StepContext.class);
+        when(context.get(Run.class)).thenReturn(run);
+        when(context.get(FilePath.class)).thenReturn(new FilePath(workspace));
+        when(context.get(TaskListener.class)).thenReturn(listener);
+        when(context.get(EnvVars.class)).thenReturn(new EnvVars());
+    }
+
+    @After
+    public void stopThemis() {
+        themis.stop();
+    }
+
+    @Test
+    public void testStartCompletesContext() throws Exception {
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH, handler);
+
+        StepExecution execution = step.start(context);
+
+        assertThat(execution.start()).isFalse();
+        verify(context, timeout(TIMEOUT)).onSuccess(null);
+        verify(context, never()).onFailure(any());
+        assertThat(handler).hasReports(1);
+    }
+
+    @Test
+    public void testStartFailsContext() throws Exception {
+        themis.setReporHandler(API_KEY, PATH, e -> response(500, "Error"));
+        step.setFailBuild(true);
+
+        step.start(context).start();
+
+        verify(context, timeout(TIMEOUT)).onFailure(any(RuntimeException.class));
+        verify(context, never()).onSuccess(any());
+    }
+
+    @Test
+    public void testStopCancelsUpload() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        themis.setReporHandler(API_KEY, PATH, e -> {
+            received.countDown();
+            try {
+                released.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return response(200, "");
+        });
+        StepExecution execution = step.start(context);
+        execution.start();
+        assertThat(received.await(TIMEOUT, TimeUnit.MILLISECONDS)).isTrue();
+        Exception cause = new InterruptedException("stopped");
+
+        execution.stop(cause);
+        released.countDown();
+
+        verify(context).onFailure(cause);
+        // the cancelled upload does not complete the context again
+        verify(context, after(1000).times(1)).onFailure(any());
+        verify(context, never()).onSuccess(any());
+    }
+
+}
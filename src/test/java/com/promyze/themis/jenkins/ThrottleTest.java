@@ -0,0 +1,95 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ThrottleTest {
+
+    @After
+    public void dropThrottles() {
+        Throttle.retain(Collections.emptySet());
+    }
+
+    @Test
+    public void testRetryAfterSeconds() {
+        assertThat(Throttle.getRequestedPause(response(429, "Retry-After", "30"))).isEqualTo(30000);
+        assertThat(Throttle.getRequestedPause(response(503, "Retry-After", "2"))).isEqualTo(2000);
+    }
+
+    @Test
+    public void testRetryAfterDate() {
+        String date = DateUtils.formatDate(new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60)));
+
+        assertThat(Throttle.getRequestedPause(response(429, "Retry-After", date))).isBetween(55000L, 60000L);
+    }
+
+    @Test
+    public void testRetryAfterIgnored() {
+        // not a throttled response
+        assertThat(Throttle.getRequestedPause(response(200, "Retry-After", "30"))).isZero();
+        assertThat(Throttle.getRequestedPause(response(429, "Retry-After", "soon"))).isZero();
+        assertThat(Throttle.getRequestedPause(response(429, "Other", "30"))).isZero();
+    }
+
+    @Test
+    public void testRateLimitExhausted() {
+        HttpResponse exhausted = response(200, "RateLimit-Remaining", "0");
+        exhausted.addHeader("RateLimit-Reset", "10");
+        HttpResponse legacy = response(200, "X-RateLimit-Remaining", "0");
+        long reset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 20;
+        legacy.addHeader("X-RateLimit-Reset", String.valueOf(reset));
+        HttpResponse remaining = response(200, "RateLimit-Remaining", "5");
+        remaining.addHeader("RateLimit-Reset", "10");
+
+        assertThat(Throttle.getRequestedPause(exhausted)).isEqualTo(10000);
+        assertThat(Throttle.getRequestedPause(legacy)).isBetween(18000L, 20000L);
+        assertThat(Throttle.getRequestedPause(remaining)).isZero();
+    }
+
+    @Test
+    public void testPauseCapped() {
+        assertThat(Throttle.getRequestedPause(response(429, "Retry-After", "86400"))).isEqualTo(Throttle.MAX_PAUSE);
+    }
+
+    @Test
+    public void testPause() {
+        ThemisInstance instance = new ThemisInstance("instance", "http://localhost", "apiKey");
+        Throttle throttle = Throttle.get(instance);
+
+        assertThat(Throttle.get(instance)).isSameAs(throttle);
+        assertThat(throttle.getRemainingPause()).isZero();
+
+        throttle.onResponse(response(429, "Retry-After", "60"));
+        throttle.pause(100);
+
+        assertThat(throttle.getRemainingPause()).isBetween(59000L, 60000L);
+    }
+
+    @Test
+    public void testPauseKeptForReplacedInstance() {
+        Throttle.get(new ThemisInstance("instance", "http://localhost", "apiKey")).pause(60000);
+
+        Throttle.retain(Collections.singleton("instance"));
+
+        assertThat(Throttle.get(new ThemisInstance("instance", "http://other", "apiKey")).getRemainingPause())
+                .isBetween(59000L, 60000L);
+    }
+
+    private static HttpResponse response(int statusCode, String header, String value) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+        response.addHeader(header, value);
+        return response;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.promyze.themis.jenkins;
+
+import com.promyze.themis.jenkins.ThemisTimingAction.Timing;
+import com.promyze.themis.jenkins.TimingStatistics.InstanceStatistics;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimingStatisticsTest {
+
+    private final TimingStatistics statistics = TimingStatistics.get();
+
+    @Test
+    public void testPercentiles() {
+        for (int i = 1; i <= 100; i++) {
+            statistics.record("job #1", new Timing("percentiles", "type", -1, 0, -1, -1, -1, i));
+        }
+
+        InstanceStatistics instance = statistics.getInstances().stream()
+                .filter(s -> s.getInstanceName().equals("percentiles"))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertThat(instance.getCount()).isEqualTo(100);
+        assertThat(instance.getMedian()).isEqualTo(50);
+        assertThat(instance.getPercentile90()).isEqualTo(90);
+        assertThat(instance.getPercentile99()).isEqualTo(99);
+        assertThat(instance.getMax()).isEqualTo(100);
+    }
+
+    @Test
+    public void testSlowest() {
+        statistics.record("job #2", new Timing("slowest", "type", -1, 0, -1, -1, -1, Long.MAX_VALUE));
+
+        assertThat(statistics.getSlowest().get(0).getBuildName()).isEqualTo("job #2");
+    }
+
+    @Test
+    public void testSummary() {
+        Timing timing = new Timing("summary", "type", 12, 3, 340, -1, 410, 800);
+
+        assertThat(timing.getSummary()).isEqualTo("scan 12 ms, 3 files, archive 340 ms, first response byte 410 ms, "
+                                                          + "total 800 ms");
+        assertThat(new Timing("summary", "type", -1, 1, -1, -1, -1, 5).getSummary()).isEqualTo("1 file, total 5 ms");
+    }
+
+}
@@ -4,6 +4,7 @@ import com.promyze.themis.jenkins.ThemisGlobalConfiguration;
 import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
 import com.promyze.themis.jenkins.test.MockThemis;
 import hudson.FilePath;
+import hudson.model.Job;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import jenkins.model.GlobalConfiguration;
@@ -14,7 +15,9 @@ import org.jvnet.hudson.test.JenkinsRule;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Collections;
 
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -40,9 +43,13 @@ public abstract class BaseThemisActionTest<T extends ThemisAction> {
         themis = new MockThemis();
         int port = themis.start();
         themisInstance = new ThemisInstance(INSTANCE_NAME, URL + port, API_KEY);
-        GlobalConfiguration.all().get(ThemisGlobalConfiguration.class).getInstances().add(themisInstance);
+        GlobalConfiguration.all().get(ThemisGlobalConfiguration.class)
+                .setInstances(Collections.singletonList(themisInstance));
 
+        Job<?, ?> job = mock(Job.class);
+        when(job.getFullName()).thenReturn("job");
         run = mock(Run.class);
+        doReturn(job).when(run).getParent();
         workspace = mock(FilePath.class);
         listener = mock(TaskListener.class);
         logger = mock(PrintStream.class);
@@ -0,0 +1,55 @@
+package com.promyze.themis.jenkins.action;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JsonFieldsTest {
+
+    @Test
+    public void testReadSkipsOtherFields() {
+        Map<String, Object> fields = read("{\"details\": {\"items\": [1, {\"status\": \"x\"}, \"]}\"], \"ok\": true},"
+                                                  + " \"count\": -1.5e3, \"empty\": null,"
+                                                  + " \"status\": \"DONE\", \"dataDisplayed\": 42}",
+                                          "status", "dataDisplayed", "empty");
+
+        assertThat(fields).containsEntry("status", "DONE")
+                .containsEntry("dataDisplayed", 42)
+                .containsEntry("empty", JSONObject.NULL)
+                .hasSize(3);
+    }
+
+    @Test
+    public void testReadStopsAtLastField() {
+        // the rest of the text is not read, even if it is not valid
+        Map<String, Object> fields = read("{\"status\": \"RUNNING\", \"dataDisplayed\": \"Project\", !", "status",
+                                          "dataDisplayed");
+
+        assertThat(fields).containsEntry("status", "RUNNING").containsEntry("dataDisplayed", "Project");
+    }
+
+    @Test
+    public void testReadMissingField() {
+        assertThat(read("{\"status\": \"DONE\"}", "status", "dataDisplayed")).containsOnlyKeys("status");
+        assertThat(read("{}", "status")).isEmpty();
+    }
+
+    @Test
+    public void testReadInvalid() {
+        assertThatThrownBy(() -> read("Unavailable", "status")).isInstanceOf(JSONException.class);
+        assertThatThrownBy(() -> read("{\"other\": [1, 2", "status")).isInstanceOf(JSONException.class);
+        assertThatThrownBy(() -> read("", "status")).isInstanceOf(JSONException.class);
+    }
+
+    private static Map<String, Object> read(String json, String... names) {
+        return JsonFields.read(new StringReader(json), Arrays.asList(names));
+    }
+
+}
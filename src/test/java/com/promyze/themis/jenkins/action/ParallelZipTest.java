@@ -0,0 +1,128 @@
+package com.promyze.themis.jenkins.action;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ParallelZipTest {
+
+    private static final long TIME = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testZipDeterministic() throws IOException {
+        byte[] single = zip(1, Long.MAX_VALUE);
+        byte[] parallel = zip(4, Long.MAX_VALUE);
+
+        assertThat(parallel).isEqualTo(single);
+        assertThat(names(parallel)).containsExactly(expectedNames());
+    }
+
+    @Test
+    public void testZipInlineEntries() throws IOException {
+        byte[] archive = zip(4, 1000);
+
+        assertThat(names(archive)).containsExactly(expectedNames());
+        File file = folder.newFile("archive.zip");
+        Files.write(file.toPath(), archive);
+        try (ZipFile zipFile = new ZipFile(file)) {
+            ZipEntry entry = zipFile.getEntry("reports/report19.xml");
+            assertThat(entry.getTime()).isEqualTo(TIME);
+            assertThat(IOUtils.toString(zipFile.getInputStream(entry), StandardCharsets.UTF_8))
+                    .isEqualTo(content(19));
+        }
+    }
+
+    @Test
+    public void testZipReadable() throws IOException {
+        byte[] single = zip(1, 1000);
+        byte[] parallel = zip(4, 1000);
+
+        assertThat(parallel).isEqualTo(single);
+        File file = folder.newFile("archive.zip");
+        Files.write(file.toPath(), parallel);
+        try (ZipFile zipFile = new ZipFile(file)) {
+            assertThat(zipFile.size()).isEqualTo(20);
+            for (int i = 0; i < 20; i++) {
+                ZipEntry entry = zipFile.getEntry("reports/report" + i + ".xml");
+                byte[] content = content(i).getBytes(StandardCharsets.UTF_8);
+                assertThat(entry.getSize()).isEqualTo(content.length);
+                assertThat(IOUtils.toByteArray(zipFile.getInputStream(entry))).isEqualTo(content);
+            }
+        }
+    }
+
+    @Test
+    public void testZipFailure() {
+        assertThatThrownBy(() -> {
+            try (ParallelZip zip = new ParallelZip(new ByteArrayOutputStream(), Deflater.DEFAULT_COMPRESSION, 4,
+                                                   Long.MAX_VALUE)) {
+                for (int i = 0; i < 20; i++) {
+                    int index = i;
+                    zip.add("report" + i, TIME, 0, out -> {
+                        if (index == 3) {
+                            throw new IOException("unreadable");
+                        }
+                    });
+                }
+            }
+        }).isInstanceOf(IOException.class).hasMessage("unreadable");
+    }
+
+    private byte[] zip(int threads, long inlineSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ParallelZip zip = new ParallelZip(out, Deflater.DEFAULT_COMPRESSION, threads, inlineSize)) {
+            for (int i = 0; i < 20; i++) {
+                byte[] content = content(i).getBytes(StandardCharsets.UTF_8);
+                zip.add("reports/report" + i + ".xml", TIME, content.length, o -> o.write(content));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private String content(int index) {
+        StringBuilder content = new StringBuilder("<report>");
+        for (int i = 0; i < index * 20; i++) {
+            content.append("<line nr=\"").append(i).append("\"/>");
+        }
+        return content.append("</report>").toString();
+    }
+
+    private String[] expectedNames() {
+        String[] names = new String[20];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "reports/report" + i + ".xml";
+        }
+        return names;
+    }
+
+    private List<String> names(byte[] archive) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+}
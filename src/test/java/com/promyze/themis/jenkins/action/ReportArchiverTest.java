@@ -0,0 +1,103 @@
+package com.promyze.themis.jenkins.action;
+
+import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
+import hudson.FilePath;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class ReportArchiverTest {
+
+    private static final String REPORT = "<report>\n    <line nr=\"1\"/>\n</report>\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ThemisInstance instance = new ThemisInstance("instance", "http://localhost", "apiKey");
+
+    @Test
+    public void testZipCompact() throws IOException, InterruptedException {
+        write("b/report.xml", REPORT);
+        write("a/report.xml", REPORT);
+        write("a/coverage.txt", "  kept as is\n");
+        write("other/report.xml", REPORT);
+
+        Map<String, String> entries = zip("a/**,b/**", ArchiveOptions.of(instance, true));
+
+        assertThat(entries).containsExactly(entry("a/coverage.txt", "  kept as is\n"),
+                                            entry("a/report.xml", "<report><line nr=\"1\"/></report>"),
+                                            entry("b/report.xml", "<report><line nr=\"1\"/></report>"));
+    }
+
+    @Test
+    public void testZipWithoutCompact() throws IOException, InterruptedException {
+        write("a/report.xml", REPORT);
+
+        Map<String, String> entries = zip("a/**", ArchiveOptions.of(instance, false));
+
+        assertThat(entries).containsExactly(entry("a/report.xml", REPORT));
+    }
+
+    @Test
+    public void testZipCompressionLevel() throws IOException, InterruptedException {
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            report.append(REPORT);
+        }
+        write("a/report.xml", report.toString());
+
+        instance.setCompression("store");
+        int stored = archive("a/**", ArchiveOptions.of(instance, false)).length;
+        instance.setCompression("best");
+        byte[] best = archive("a/**", ArchiveOptions.of(instance, false));
+
+        assertThat(stored).isGreaterThan(report.length());
+        assertThat(best.length).isLessThan(report.length() / 10);
+        assertThat(entries(best)).containsExactly(entry("a/report.xml", report.toString()));
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Map<String, String> zip(String includes, ArchiveOptions options) throws IOException, InterruptedException {
+        return entries(archive(includes, options));
+    }
+
+    private byte[] archive(String includes, ArchiveOptions options) throws IOException, InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FilePath workspace = new FilePath(folder.getRoot());
+        ReportArchiver.zip(workspace, out, workspace.act(new ReportScan(includes)), options);
+        return out.toByteArray();
+    }
+
+    private Map<String, String> entries(byte[] archive) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                String content = IOUtils.toString(zip, StandardCharsets.UTF_8);
+                // strips the XML declaration written by the compactor
+                entries.put(entry.getName(), content.replaceFirst("^<\\?xml[^>]*\\?>", ""));
+            }
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.promyze.themis.jenkins.action;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReportCompactorTest {
+
+    @Test
+    public void testIsCompactable() {
+        assertThat(ReportCompactor.isCompactable("target/site/jacoco/jacoco.xml")).isTrue();
+        assertThat(ReportCompactor.isCompactable("PMD.XML")).isTrue();
+        assertThat(ReportCompactor.isCompactable("coverage.json")).isFalse();
+    }
+
+    @Test
+    public void testCompactWhitespaceAndComments() throws IOException {
+        String report = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!-- generated -->\n"
+                + "<checkstyle version=\"8.0\">\n"
+                + "    <file name=\"A.java\">\n"
+                + "        <?processing instruction?>\n"
+                + "        <error line=\"1\" message=\"a &amp; b\"/>\n"
+                + "    </file>\n"
+                + "</checkstyle>\n";
+
+        assertThat(compact(report)).isEqualTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                                                      + "<checkstyle version=\"8.0\"><file name=\"A.java\">"
+                                                      + "<error line=\"1\" message=\"a &amp; b\"/>"
+                                                      + "</file></checkstyle>");
+    }
+
+    @Test
+    public void testCompactNamespaces() throws IOException {
+        String report = "<a xmlns=\"urn:a\" xmlns:p=\"urn:p\">\n  <p:b p:c=\"1\"> </p:b>\n</a>";
+
+        assertThat(compact(report)).endsWith("<a xmlns=\"urn:a\" xmlns:p=\"urn:p\"><p:b p:c=\"1\"/></a>");
+    }
+
+    @Test
+    public void testCompactKeepsTextAndDoctype() throws IOException {
+        String report = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                + "<!DOCTYPE report PUBLIC \"-//JACOCO//DTD Report 1.1//EN\" \"report.dtd\">"
+                + "<pmd><violation rule=\"Unused\">\n  Avoid unused <![CDATA[variables]]>\n</violation></pmd>";
+
+        String compacted = compact(report);
+
+        assertThat(compacted).contains("<!DOCTYPE report PUBLIC \"-//JACOCO//DTD Report 1.1//EN\" \"report.dtd\">")
+                .contains("<violation rule=\"Unused\">\n  Avoid unused variables\n</violation>");
+    }
+
+    @Test
+    public void testCompactConvertsToUtf8() throws IOException {
+        String report = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><file name=\"\u00e9t\u00e9.java\"/>";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReportCompactor.compact(new ByteArrayInputStream(report.getBytes(StandardCharsets.ISO_8859_1)), out, "r");
+
+        assertThat(out.toString(StandardCharsets.UTF_8.name()))
+                .startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .contains("name=\"\u00e9t\u00e9.java\"");
+    }
+
+    @Test
+    public void testCompactMalformed() {
+        assertThatThrownBy(() -> compact("<checkstyle><file></checkstyle>"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("report.xml");
+    }
+
+    private String compact(String report) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReportCompactor.compact(new ByteArrayInputStream(report.getBytes(StandardCharsets.UTF_8)), out, "report.xml");
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
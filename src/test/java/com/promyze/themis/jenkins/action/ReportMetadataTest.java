@@ -0,0 +1,46 @@
+package com.promyze.themis.jenkins.action;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReportMetadataTest {
+
+    @Test
+    public void testForType() {
+        JSONObject build = new JSONObject().put("commit", "abc").put("executionDate", 1513330262227L);
+        ReportMetadata metadata = new ReportMetadata(build, "dataType");
+
+        JSONObject first = parse(metadata.forType("junit"));
+        JSONObject second = parse(metadata.forType("\"quoted\" \u00e9"));
+
+        assertThat(first.toMap()).containsOnlyKeys("commit", "executionDate", "dataType")
+                .containsEntry("dataType", "junit")
+                .containsEntry("commit", "abc");
+        assertThat(second.getString("dataType")).isEqualTo("\"quoted\" \u00e9");
+        assertThat(build.has("dataType")).isFalse();
+    }
+
+    @Test
+    public void testForTypeEmpty() {
+        ReportMetadata metadata = new ReportMetadata(new JSONObject(), "dataType");
+
+        assertThat(new String(metadata.forType("junit"), StandardCharsets.UTF_8)).isEqualTo("{\"dataType\":\"junit\"}");
+    }
+
+    @Test
+    public void testGet() {
+        ReportMetadata metadata = new ReportMetadata(new JSONObject().put("commit", "abc"), "dataType");
+
+        assertThat(metadata.get("commit")).isEqualTo("abc");
+        assertThat(metadata.get("branch")).isNull();
+    }
+
+    private static JSONObject parse(byte[] metadata) {
+        return new JSONObject(new String(metadata, StandardCharsets.UTF_8));
+    }
+
+}
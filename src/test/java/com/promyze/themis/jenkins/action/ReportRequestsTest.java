@@ -0,0 +1,60 @@
+package com.promyze.themis.jenkins.action;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReportRequestsTest {
+
+    private static final byte[] METADATA = "{}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testResponseLatencyExcludesBody() throws IOException {
+        HttpPost request = ReportRequests.newRequest("http://localhost", "apiKey", "key", METADATA,
+                                                     ReportRequests.archiveBody(slowArchive()));
+        long start = System.nanoTime();
+
+        request.getEntity().writeTo(new NullOutputStream());
+
+        // the archive took 500 ms to send, which is not part of the time to respond
+        assertThat(ReportRequests.getResponseLatency(request, start)).isLessThan(400);
+    }
+
+    @Test
+    public void testResponseLatencyBodyNotSent() throws InterruptedException {
+        HttpPost request = ReportRequests.newRequest("http://localhost", "apiKey", "key", METADATA,
+                                                     ReportRequests.archiveBody(slowArchive()));
+        long start = System.nanoTime();
+
+        Thread.sleep(200);
+
+        assertThat(ReportRequests.getResponseLatency(request, start)).isGreaterThanOrEqualTo(200);
+    }
+
+    /**
+     * @return an archive stream that takes 500 ms to read
+     */
+    private static InputStream slowArchive() {
+        return new ByteArrayInputStream(new byte[1024]) {
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, Math.min(len, 256));
+            }
+
+        };
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.promyze.themis.jenkins.action;
+
+import hudson.FilePath;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class ReportScanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScan() throws IOException, InterruptedException {
+        write("b/report.xml", "<b/>");
+        write("a/report.xml", "<report/>");
+        write("a/coverage.txt", "covered");
+        write("other/report.xml", "<other/>");
+        File report = new File(folder.getRoot(), "a/report.xml");
+        assertThat(report.setLastModified(1500000000000L)).isTrue();
+
+        ScannedFiles files = new FilePath(folder.getRoot()).act(new ReportScan("b/**,a/*.xml"));
+
+        assertThat(files.getEntries())
+                .extracting(ScannedFiles.Entry::getPath, ScannedFiles.Entry::getSize)
+                .containsExactly(tuple(path("a/report.xml"), 9L), tuple(path("b/report.xml"), 4L));
+        assertThat(files.getEntries().get(0).getLastModified()).isEqualTo(report.lastModified());
+        assertThat(files.getTotalSize()).isEqualTo(13);
+        assertThat(files.getScanTime()).isNotNegative();
+    }
+
+    @Test
+    public void testScanNoFiles() throws IOException, InterruptedException {
+        write("a/report.xml", "<report/>");
+
+        ScannedFiles files = new FilePath(folder.getRoot()).act(new ReportScan("b/**"));
+
+        assertThat(files.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testScanMissingWorkspace() {
+        FilePath workspace = new FilePath(new File(folder.getRoot(), "missing"));
+
+        assertThatThrownBy(() -> workspace.act(new ReportScan("**/*.xml"))).isInstanceOf(IOException.class);
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String path(String path) {
+        return path.replace('/', File.separatorChar);
+    }
+
+}
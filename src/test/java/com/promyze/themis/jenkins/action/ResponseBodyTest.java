@@ -0,0 +1,52 @@
+package com.promyze.themis.jenkins.action;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResponseBodyTest {
+
+    @Test
+    public void testReadError() throws IOException {
+        ResponseBody body = ResponseBody.read(response(500, "Error \u00e9"), 100);
+
+        assertThat(body.isTruncated()).isFalse();
+        assertThat(body.toString()).isEqualTo("Error \u00e9");
+    }
+
+    @Test
+    public void testReadErrorTruncated() throws IOException {
+        ResponseBody body = ResponseBody.read(response(502, "<html>Bad gateway</html>"), 6);
+
+        assertThat(body.isTruncated()).isTrue();
+        assertThat(body.toString()).startsWith("<html>").contains("6").doesNotContain("Bad gateway");
+    }
+
+    @Test
+    public void testReadSuccess() throws IOException {
+        HttpResponse response = response(200, "{\"dataDisplayed\": \"Project\"}");
+
+        ResponseBody body = ResponseBody.read(response, 100);
+
+        assertThat(body.toString()).isEmpty();
+        assertThat(response.getEntity().getContent().read()).isEqualTo(-1);
+    }
+
+    private static HttpResponse response(int statusCode, String body) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+        // a streamed entity, read only once like the entity of a real response
+        response.setEntity(new InputStreamEntity(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)),
+                                                 ContentType.create("text/plain", StandardCharsets.UTF_8)));
+        return response;
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.promyze.themis.jenkins.action;
 
+import com.promyze.themis.jenkins.CircuitBreaker;
 import com.promyze.themis.jenkins.ThemisGlobalConfiguration;
 import com.promyze.themis.jenkins.ThemisGlobalConfiguration.ThemisInstance;
 import hudson.FilePath;
@@ -10,6 +11,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.Collections;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.never;
@@ -47,9 +50,20 @@ public class ThemisActionTest extends BaseThemisActionTest<ThemisAction> {
         verify(action).doPerform(themisInstance, run, workspace, listener);
     }
 
+    @Test
+    public void testPerformReplacedInstance() {
+        ThemisInstance replaced = new ThemisInstance(INSTANCE_NAME, themisInstance.getUrl(), API_KEY);
+        GlobalConfiguration.all().get(ThemisGlobalConfiguration.class)
+                .setInstances(Collections.singletonList(replaced));
+
+        action.perform(run, workspace, listener);
+
+        verify(action).doPerform(replaced, run, workspace, listener);
+    }
+
     @Test
     public void testPerformUnknownInstance() {
-        GlobalConfiguration.all().get(ThemisGlobalConfiguration.class).getInstances().clear();
+        GlobalConfiguration.all().get(ThemisGlobalConfiguration.class).setInstances(Collections.emptyList());
 
         action.perform(run, workspace, listener);
 
@@ -59,12 +73,24 @@ public class ThemisActionTest extends BaseThemisActionTest<ThemisAction> {
 
     @Test(expected = RuntimeException.class)
     public void testPerformUnknownInstanceFailBuild() {
-        GlobalConfiguration.all().get(ThemisGlobalConfiguration.class).getInstances().clear();
+        GlobalConfiguration.all().get(ThemisGlobalConfiguration.class).setInstances(Collections.emptyList());
         action.setFailBuild(true);
 
         action.perform(run, workspace, listener);
     }
 
+    @Test
+    public void testPerformUnavailableInstance() {
+        themisInstance.setCircuitFailureThreshold(1);
+        CircuitBreaker.get(themisInstance).onFailure();
+
+        action.perform(run, workspace, listener);
+
+        verify(action, never()).doPerform(themisInstance, run, workspace, listener);
+        verify(listener).error("Themis instance " + INSTANCE_NAME
+                                       + " is unavailable after repeated failures, request not sent");
+    }
+
     private static class ThemisActionImpl extends ThemisAction {
 
         ThemisActionImpl(String instanceName) {
@@ -4,18 +4,29 @@ import com.promyze.themis.jenkins.test.MockThemis.RefreshHandler;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.promyze.themis.jenkins.test.MockThemis.response;
 import static com.promyze.themis.jenkins.test.ThemisAssertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.only;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class ThemisRefreshActionTest extends BaseThemisActionTest<ThemisRefreshAction> {
 
     private static final String PROJECT_KEY = "projectKey";
     private static final String PATH = "/api/refreshProject/" + PROJECT_KEY;
+    private static final String STATUS_PATH = "/api/refreshStatus/" + PROJECT_KEY;
     private static final String OK_MESSAGE = "{\"dataDisplayed\": \"Refresh project\"}";
 
     @Before
@@ -63,6 +74,94 @@ public class ThemisRefreshActionTest extends BaseThemisActionTest<ThemisRefreshA
         verify(listener, only()).error(anyString());
     }
 
+    @Test
+    public void testPerformCoalesced() throws InterruptedException {
+        AtomicInteger refreshes = new AtomicInteger();
+        themis.setRefreshHandler(API_KEY, PATH, e -> {
+            refreshes.incrementAndGet();
+            return response(200, OK_MESSAGE);
+        });
+        themisInstance.setRefreshDebounce(1);
+        ThemisRefreshAction otherAction = new ThemisRefreshAction(INSTANCE_NAME, PROJECT_KEY);
+        Thread otherBuild = new Thread(() -> otherAction.perform(run, workspace, listener));
+
+        otherBuild.start();
+        action.perform(run, workspace, listener);
+        otherBuild.join();
+
+        assertThat(refreshes).hasValue(1);
+        verify(logger, times(2)).println("Themis project refresh successfully requested: Refresh project");
+        verify(listener, never()).error(anyString());
+    }
+
+    @Test
+    public void testPerformSkippedAfterFailedReports() {
+        RefreshHandler okHandler = new RefreshHandler(OK_MESSAGE);
+        themis.setRefreshHandler(API_KEY, PATH, okHandler);
+        ReportOutcomes outcomes = new ReportOutcomes();
+        when(run.getAction(ReportOutcomes.class)).thenReturn(outcomes);
+        ReportOutcomes.record(run, INSTANCE_NAME, false, Collections.emptyList());
+        action.setAfterReports(true);
+
+        Map<String, String> result = action.performAsync(run, listener).join();
+
+        assertThat(result).containsEntry(ThemisRefreshAction.STATUS_KEY, ThemisRefreshAction.STATUS_SKIPPED);
+        assertThat(okHandler).isKO();
+        verify(listener, never()).error(anyString());
+    }
+
+    @Test
+    public void testPerformWaitForCompletion() {
+        themis.setRefreshHandler(API_KEY, PATH, new RefreshHandler(OK_MESSAGE));
+        AtomicInteger polls = new AtomicInteger();
+        themis.setRefreshStatusHandler(API_KEY, STATUS_PATH, e -> polls.incrementAndGet() < 2
+                ? response(200, "{\"status\": \"RUNNING\"}")
+                : response(200, "{\"status\": \"DONE\", \"dataDisplayed\": \"Refreshed project\"}"));
+        action.setWaitForCompletion(true);
+
+        Map<String, String> result = action.performAsync(run, listener).join();
+
+        assertThat(polls).hasValue(2);
+        assertThat(result).containsEntry(ThemisRefreshAction.STATUS_KEY, "DONE")
+                .containsEntry(ThemisRefreshAction.DATA_DISPLAYED_KEY, "Refreshed project");
+        verify(logger).println("Themis project refresh completed with status DONE: Refreshed project");
+        verify(listener, never()).error(anyString());
+    }
+
+    @Test
+    public void testPerformWaitForCompletionCancelled() throws InterruptedException {
+        themis.setRefreshHandler(API_KEY, PATH, new RefreshHandler(OK_MESSAGE));
+        CountDownLatch polled = new CountDownLatch(1);
+        AtomicInteger polls = new AtomicInteger();
+        themis.setRefreshStatusHandler(API_KEY, STATUS_PATH, e -> {
+            polls.incrementAndGet();
+            polled.countDown();
+            return response(200, "{\"status\": \"RUNNING\"}");
+        });
+        action.setWaitForCompletion(true);
+
+        CompletableFuture<Map<String, String>> completion = action.performAsync(run, listener);
+        assertThat(polled.await(5, TimeUnit.SECONDS)).isTrue();
+        completion.cancel(true);
+        Thread.sleep(3000);
+
+        assertThat(polls).hasValue(1);
+        verify(listener, never()).error(anyString());
+    }
+
+    @Test
+    public void testPerformWaitForCompletionStatusUnknown() {
+        themis.setRefreshHandler(API_KEY, PATH, new RefreshHandler(OK_MESSAGE));
+        action.setWaitForCompletion(true);
+
+        Map<String, String> result = action.performAsync(run, listener).join();
+
+        assertThat(result).containsEntry(ThemisRefreshAction.STATUS_KEY, ThemisRefreshAction.STATUS_REQUESTED)
+                .containsEntry(ThemisRefreshAction.DATA_DISPLAYED_KEY, "Refresh project");
+        verify(logger).println(contains("does not report the progress of refreshes"));
+        verify(listener, never()).error(anyString());
+    }
+
     @Test
     public void testPerformUnavailableServer() {
         themis.stop();
@@ -1,18 +1,35 @@
 package com.promyze.themis.jenkins.action;
 
+import com.promyze.themis.jenkins.CircuitBreaker;
 import com.promyze.themis.jenkins.ReportFile;
+import com.promyze.themis.jenkins.test.MockThemis.RefreshHandler;
 import com.promyze.themis.jenkins.test.MockThemis.ReportHandler;
 import hudson.EnvVars;
 import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.util.DirScanner;
+import org.apache.commons.fileupload.FileItem;
 import org.json.JSONObject;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.promyze.themis.jenkins.test.MockThemis.response;
 import static com.promyze.themis.jenkins.test.ThemisAssertions.assertThat;
@@ -20,10 +37,13 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -37,6 +57,9 @@ public class ThemisReportActionTest extends BaseThemisActionTest<ThemisReportAct
     private static final long DATE = 1513330262227L;
     private static final String WORKSPACE = "/jenkins/workspace";
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void setupAction() {
         action = new ThemisReportAction(INSTANCE_NAME, SOURCE_KEY);
@@ -81,11 +104,11 @@ public class ThemisReportActionTest extends BaseThemisActionTest<ThemisReportAct
         when(run.getEnvironment(listener)).thenReturn(envVars);
         when(run.getStartTimeInMillis()).thenReturn(DATE);
         when(workspace.getRemote()).thenReturn(WORKSPACE);
-        when(workspace.list(FILE_PATH)).thenReturn(new FilePath[1]);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
         doAnswer(i -> {
             ((Closeable) i.getArgument(0)).close();
             return null;
-        }).when(workspace).zip(any(), anyString());
+        }).when(workspace).zip(any(), any(DirScanner.class));
 
         action.perform(run, workspace, listener);
 
@@ -95,6 +118,8 @@ public class ThemisReportActionTest extends BaseThemisActionTest<ThemisReportAct
                 .put("dataType", TYPE)
                 .put("executionDate", DATE)
                 .put("dataWorkspace", WORKSPACE));
+        verify(logger).println(startsWith("Themis timing for " + TYPE + ": scan "));
+        verify(logger).println(contains(", 1 file, "));
     }
 
     @Test
@@ -108,11 +133,11 @@ public class ThemisReportActionTest extends BaseThemisActionTest<ThemisReportAct
         action.setEnvVars(envVars);
         when(run.getStartTimeInMillis()).thenReturn(DATE);
         when(workspace.getRemote()).thenReturn(WORKSPACE);
-        when(workspace.list(FILE_PATH)).thenReturn(new FilePath[1]);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
         doAnswer(i -> {
             ((Closeable) i.getArgument(0)).close();
             return null;
-        }).when(workspace).zip(any(), anyString());
+        }).when(workspace).zip(any(), any(DirScanner.class));
 
         action.perform(run, workspace, listener);
 
@@ -129,18 +154,244 @@ public class ThemisReportActionTest extends BaseThemisActionTest<ThemisReportAct
                 .put("dataWorkspace", WORKSPACE));
     }
 
+    @Test
+    public void testPerformBatchUpload() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH + "/batch", handler);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        action.addReportFile(new ReportFile(TYPE + 2, FILE_PATH));
+        action.setBatchUpload(true);
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+
+        action.perform(run, workspace, listener);
+
+        assertThat(handler).hasReports(1);
+        assertThat(handler.getFileItems().get(0)).hasSize(3);
+        verify(logger).println("Themis report successfully sent for type " + TYPE);
+        verify(logger).println("Themis report successfully sent for type " + TYPE + 2);
+    }
+
+    @Test
+    public void testPerformBatchUploadRejected() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH, handler);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        action.addReportFile(new ReportFile(TYPE + 2, FILE_PATH));
+        action.setBatchUpload(true);
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+
+        assertThat(handler).hasReports(2);
+        verify(logger).println("Themis reporting: single request rejected with status 400, "
+                                       + "sending one request per type");
+    }
+
+    @Test
+    public void testPerformBatchUploadBadRequest() throws IOException, InterruptedException {
+        themis.setReporHandler(API_KEY, PATH + "/batch", e -> response(400, "Invalid commit"));
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        action.addReportFile(new ReportFile(TYPE + 2, FILE_PATH));
+        action.setBatchUpload(true);
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+
+        // the reports would be rejected as well one type at a time
+        verify(logger, never()).println(startsWith("Themis reporting: single request rejected"));
+        verify(listener, atLeastOnce()).error(contains("Invalid commit"));
+    }
+
+    @Test
+    public void testPerformUploadFromAgent() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH, handler);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        action.setUploadFromAgent(true);
+        EnvVars envVars = new EnvVars();
+        envVars.put("GIT_COMMIT", COMMIT_ID);
+        when(run.getEnvironment(listener)).thenReturn(envVars);
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        File agentWorkspace = temporaryFolder.getRoot();
+        new FilePath(new File(agentWorkspace, "target/report.xml")).write("<report/>", "UTF-8");
+        when(workspace.act(any(FileCallable.class)))
+                .thenAnswer(i -> ((FileCallable<?>) i.getArgument(0)).invoke(agentWorkspace, null));
+
+        action.perform(run, workspace, listener);
+
+        assertThat(handler).hasReports(1);
+        assertThat(handler).hasRequest(TYPE, new JSONObject()
+                .put("commit", COMMIT_ID)
+                .put("dataType", TYPE)
+                .put("executionDate", DATE)
+                .put("dataWorkspace", WORKSPACE));
+        verify(workspace, never()).zip(any(), any(DirScanner.class));
+        verify(listener, never()).error(anyString());
+    }
+
+    @Test
+    public void testPerformSkipUnchanged() throws IOException, InterruptedException {
+        ReportDigestCache.clear();
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH, handler);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        action.setSkipUnchanged(true);
+        EnvVars envVars = new EnvVars();
+        envVars.put("GIT_COMMIT", COMMIT_ID);
+        when(run.getEnvironment(listener)).thenReturn(envVars);
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        when(workspace.act(any(ReportDigest.class))).thenReturn("digest", "digest", "otherDigest");
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+        action.perform(run, workspace, listener);
+        action.perform(run, workspace, listener);
+
+        assertThat(handler).hasReports(2);
+        verify(logger).println("Themis reporting: report files for type " + TYPE
+                                       + " were already sent for this commit, skipping");
+    }
+
+    @Test
+    public void testPerformUseOutbox() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH, handler);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        action.setUseOutbox(true);
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+
+        assertThat(handler).hasReports(0);
+        assertThat(ReportOutbox.get().getSize()).isEqualTo(1);
+
+        ReportOutbox.get().drain(listener);
+
+        assertThat(handler).hasReports(1);
+        assertThat(ReportOutbox.get().getSize()).isZero();
+        assertThat(ReportOutbox.get().getDelivered()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPerformUseOutboxRefreshAfterReports() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH, handler);
+        RefreshHandler refreshHandler = new RefreshHandler("{\"dataDisplayed\": \"Refresh project\"}");
+        themis.setRefreshHandler(API_KEY, "/api/refreshProject/projectKey", refreshHandler);
+        when(run.getAction(ReportOutcomes.class)).thenReturn(new ReportOutcomes());
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        action.setUseOutbox(true);
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+        ThemisRefreshAction refresh = new ThemisRefreshAction(INSTANCE_NAME, "projectKey");
+        refresh.setAfterReports(true);
+
+        action.perform(run, workspace, listener);
+        Map<String, String> result = refresh.performAsync(run, listener).join();
+
+        assertThat(handler).hasReports(1);
+        assertThat(refreshHandler).isOK();
+        assertThat(result).containsEntry(ThemisRefreshAction.STATUS_KEY, ThemisRefreshAction.STATUS_REQUESTED);
+        assertThat(ReportOutbox.get().getSize()).isZero();
+        verify(logger).println(contains("waiting for the delivery of the reports queued in the outbox (1)"));
+    }
+
+    @Test
+    public void testDrainDeletesLeftoverTemporaryFiles() throws IOException {
+        File directory = new File(jenkinsRule.jenkins.getRootDir(), "themis-outbox");
+        File temporary = new File(directory, "leftover.json.tmp");
+        Files.createDirectories(directory.toPath());
+        Files.write(temporary.toPath(), "{".getBytes(StandardCharsets.UTF_8));
+        temporary.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+
+        ReportOutbox.get().drain(listener);
+
+        assertThat(temporary).doesNotExist();
+    }
+
+    @Test
+    public void testPerformUseOutboxSkipUnchanged() throws IOException, InterruptedException {
+        ReportDigestCache.clear();
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH, handler);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        action.setUseOutbox(true);
+        action.setSkipUnchanged(true);
+        EnvVars envVars = new EnvVars();
+        envVars.put("GIT_COMMIT", COMMIT_ID);
+        when(run.getEnvironment(listener)).thenReturn(envVars);
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        when(workspace.act(any(ReportDigest.class))).thenReturn("digest");
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+        // queued reports are not skipped, since they may never be delivered
+        action.perform(run, workspace, listener);
+
+        assertThat(ReportOutbox.get().getSize()).isEqualTo(2);
+
+        ReportOutbox.get().drain(listener);
+        action.perform(run, workspace, listener);
+
+        assertThat(handler).hasReports(2);
+        assertThat(ReportOutbox.get().getSize()).isZero();
+        verify(logger).println("Themis reporting: report files for type " + TYPE
+                                       + " were already sent for this commit, skipping");
+    }
+
     @Test
     public void testPerformNoFiles() throws IOException, InterruptedException {
         ReportHandler handler = new ReportHandler();
         themis.setReporHandler(API_KEY, PATH, handler);
         action.addReportFile(new ReportFile(TYPE, FILE_PATH));
         when(run.getEnvironment(listener)).thenReturn(new EnvVars());
-        when(workspace.list(FILE_PATH)).thenReturn(new FilePath[0]);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(0));
 
         action.perform(run, workspace, listener);
 
         assertThat(handler).hasReports(0);
-        verify(workspace, never()).zip(any(), anyString());
+        verify(workspace, never()).zip(any(), any(DirScanner.class));
     }
 
     @Test
@@ -153,7 +404,7 @@ public class ThemisReportActionTest extends BaseThemisActionTest<ThemisReportAct
         action.perform(run, workspace, listener);
 
         assertThat(handler).hasReports(0);
-        verify(workspace, never()).zip(any(), anyString());
+        verify(workspace, never()).zip(any(), any(DirScanner.class));
         verify(listener, atLeastOnce()).error(anyString());
     }
 
@@ -163,12 +414,12 @@ public class ThemisReportActionTest extends BaseThemisActionTest<ThemisReportAct
         themis.setReporHandler(API_KEY, PATH, handler);
         action.addReportFile(new ReportFile(TYPE, FILE_PATH));
         when(run.getEnvironment(listener)).thenReturn(new EnvVars());
-        when(workspace.list(FILE_PATH)).thenThrow(IOException.class);
+        when(workspace.act(any(ReportScan.class))).thenThrow(IOException.class);
 
         action.perform(run, workspace, listener);
 
         assertThat(handler).hasReports(0);
-        verify(workspace, never()).zip(any(), anyString());
+        verify(workspace, never()).zip(any(), any(DirScanner.class));
         verify(listener, atLeastOnce()).error(anyString());
     }
 
@@ -182,8 +433,8 @@ public class ThemisReportActionTest extends BaseThemisActionTest<ThemisReportAct
         when(run.getEnvironment(listener)).thenReturn(envVars);
         when(run.getStartTimeInMillis()).thenReturn(DATE);
         when(workspace.getRemote()).thenReturn(WORKSPACE);
-        when(workspace.list(FILE_PATH)).thenReturn(new FilePath[1]);
-        doThrow(IOException.class).when(workspace).zip(any(), anyString());
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doThrow(IOException.class).when(workspace).zip(any(), any(DirScanner.class));
 
         action.perform(run, workspace, listener);
 
@@ -191,6 +442,260 @@ public class ThemisReportActionTest extends BaseThemisActionTest<ThemisReportAct
         verify(listener, atLeastOnce()).error(anyString());
     }
 
+    @Test
+    public void testPerformExceptionInZipKeepsFailures() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH, handler);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doThrow(IOException.class).when(workspace).zip(any(), any(DirScanner.class));
+        CircuitBreaker breaker = CircuitBreaker.get(themisInstance);
+        breaker.onFailure();
+
+        action.perform(run, workspace, listener);
+
+        // the request did not reach the instance
+        assertThat(breaker.getConsecutiveFailures()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPerformSpoolArchives() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH, handler);
+        themisInstance.setSpoolArchives(true);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            try (OutputStream outputStream = i.getArgument(0)) {
+                outputStream.write("archive".getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+
+        assertThat(handler).hasReports(1);
+        FileItem archive = handler.getFileItems().get(0).stream()
+                .filter(item -> item.getFieldName().equals("archive"))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertThat(archive.getString()).isEqualTo("archive");
+        verify(listener, never()).error(anyString());
+    }
+
+    @Test
+    public void testPerformRetry() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        AtomicInteger attempts = new AtomicInteger();
+        Set<String> idempotencyKeys = new HashSet<>();
+        themis.setReporHandler(API_KEY, PATH, e -> {
+            idempotencyKeys.add(e.getRequestHeaders().getFirst("Idempotency-Key"));
+            return attempts.incrementAndGet() < 3 ? response(503, "Unavailable") : handler.getResponse(e);
+        });
+        themisInstance.setRetryBackoff(1);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+
+        assertThat(handler).hasReports(1);
+        assertThat(attempts).hasValue(3);
+        assertThat(idempotencyKeys).hasSize(1).doesNotContainNull();
+        verify(workspace, times(3)).zip(any(), any(DirScanner.class));
+    }
+
+    @Test
+    public void testPerformAgainSameIdempotencyKeys() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        List<String> idempotencyKeys = new ArrayList<>();
+        themis.setReporHandler(API_KEY, PATH, e -> {
+            idempotencyKeys.add(e.getRequestHeaders().getFirst("Idempotency-Key"));
+            return handler.getResponse(e);
+        });
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.performAsync(run, workspace, listener, "upload").join();
+        action.performAsync(run, workspace, listener, "upload").join();
+        action.performAsync(run, workspace, listener, "other upload").join();
+
+        assertThat(handler).hasReports(3);
+        assertThat(idempotencyKeys).hasSize(3).doesNotContainNull();
+        assertThat(idempotencyKeys.get(1)).isEqualTo(idempotencyKeys.get(0));
+        assertThat(idempotencyKeys.get(2)).isNotEqualTo(idempotencyKeys.get(0));
+    }
+
+    @Test
+    public void testPerformCircuitOpenedWhileQueued() throws IOException, InterruptedException {
+        AtomicInteger requests = new AtomicInteger();
+        themis.setReporHandler(API_KEY, PATH, e -> {
+            requests.incrementAndGet();
+            return response(503, "Unavailable");
+        });
+        themisInstance.setMaxAttempts(1);
+        themisInstance.setCircuitFailureThreshold(1);
+        themisInstance.setMaxConcurrentUploads(1);
+        themisInstance.setFixedConcurrency(true);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        action.addReportFile(new ReportFile(TYPE + 2, FILE_PATH));
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+
+        // the first request opens the circuit, and the report queued behind it is not sent
+        assertThat(requests).hasValue(1);
+        verify(logger).println("Themis instance " + INSTANCE_NAME
+                                       + " is unavailable after repeated failures, request not sent");
+    }
+
+    @Test
+    public void testPerformThrottled() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        List<Long> attemptTimes = new ArrayList<>();
+        themis.setReporHandler(API_KEY, PATH, e -> {
+            attemptTimes.add(System.nanoTime());
+            if (attemptTimes.size() == 1) {
+                e.getResponseHeaders().add("Retry-After", "1");
+                return response(503, "Unavailable");
+            }
+            return handler.getResponse(e);
+        });
+        themisInstance.setRetryBackoff(1);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+
+        assertThat(handler).hasReports(1);
+        assertThat(attemptTimes).hasSize(2);
+        // the second attempt waited for the pause requested by the first response
+        assertThat(TimeUnit.NANOSECONDS.toMillis(attemptTimes.get(1) - attemptTimes.get(0))).isGreaterThan(900);
+    }
+
+    @Test
+    public void testPerformRequestTimeout() throws IOException, InterruptedException {
+        themis.setReporHandler(API_KEY, PATH, e -> {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return response(200, "");
+        });
+        themisInstance.setRequestTimeout(1);
+        themisInstance.setMaxAttempts(1);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+
+        verify(listener).error("Themis reporting: error while sending report for type " + TYPE);
+        verify(logger).println("Request to Themis did not complete within 1 seconds");
+    }
+
+    @Test
+    public void testPerformRequestTimeoutAcrossAttempts() throws IOException, InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        themis.setReporHandler(API_KEY, PATH, e -> {
+            attempts.incrementAndGet();
+            try {
+                Thread.sleep(700);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return response(503, "Unavailable");
+        });
+        themisInstance.setRequestTimeout(2);
+        themisInstance.setMaxAttempts(10);
+        themisInstance.setRetryBackoff(1);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            ((Closeable) i.getArgument(0)).close();
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        action.perform(run, workspace, listener);
+
+        assertThat(attempts.get()).isBetween(2, 3);
+        verify(logger).println("Request to Themis did not complete within 2 seconds");
+    }
+
+    @Test
+    public void testPerformRequestTimeoutWhileSpooling() throws IOException, InterruptedException {
+        ReportHandler handler = new ReportHandler();
+        themis.setReporHandler(API_KEY, PATH, handler);
+        themisInstance.setSpoolArchives(true);
+        themisInstance.setRequestTimeout(1);
+        themisInstance.setMaxAttempts(1);
+        action.addReportFile(new ReportFile(TYPE, FILE_PATH));
+        when(run.getEnvironment(listener)).thenReturn(new EnvVars());
+        when(run.getStartTimeInMillis()).thenReturn(DATE);
+        when(workspace.getRemote()).thenReturn(WORKSPACE);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
+        doAnswer(i -> {
+            try (OutputStream outputStream = i.getArgument(0)) {
+                // an archive that takes 10 seconds to write
+                for (int j = 0; j < 100; j++) {
+                    outputStream.write(new byte[16 * 1024]);
+                    Thread.sleep(100);
+                }
+            }
+            return null;
+        }).when(workspace).zip(any(), any(DirScanner.class));
+
+        long start = System.nanoTime();
+        action.perform(run, workspace, listener);
+
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(5);
+        assertThat(handler).hasReports(0);
+        verify(logger).println("Request to Themis did not complete within 1 seconds");
+    }
+
     @Test
     public void testPerformServerError() throws IOException, InterruptedException {
         themis.setReporHandler(API_KEY, PATH, e -> response(500, "Error"));
@@ -200,15 +705,23 @@ public class ThemisReportActionTest extends BaseThemisActionTest<ThemisReportAct
         when(run.getEnvironment(listener)).thenReturn(envVars);
         when(run.getStartTimeInMillis()).thenReturn(DATE);
         when(workspace.getRemote()).thenReturn(WORKSPACE);
-        when(workspace.list(FILE_PATH)).thenReturn(new FilePath[1]);
+        when(workspace.act(any(ReportScan.class))).thenReturn(scannedFiles(1));
         doAnswer(i -> {
             ((Closeable) i.getArgument(0)).close();
             return null;
-        }).when(workspace).zip(any(), anyString());
+        }).when(workspace).zip(any(), any(DirScanner.class));
 
         action.perform(run, workspace, listener);
 
         verify(listener, atLeastOnce()).error(anyString());
     }
 
+    private static ScannedFiles scannedFiles(int count) {
+        List<ScannedFiles.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new ScannedFiles.Entry("target/report" + i + ".xml", 10, DATE));
+        }
+        return new ScannedFiles(entries, 0);
+    }
+
 }
@@ -11,6 +11,8 @@ import org.apache.commons.fileupload.FileItemHeaders;
 import org.apache.commons.fileupload.FileUpload;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.RequestContext;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -23,6 +25,9 @@ import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class MockThemis {
 
@@ -34,9 +39,27 @@ public class MockThemis {
     private HttpContext testContext;
     private HttpContext refreshContext;
     private HttpContext reportContext;
+    private ExecutorService executor;
+    private volatile long latency;
+    private volatile double errorRate;
+    private volatile double throttleRate;
 
     public int start() throws IOException {
+        return start(0);
+    }
+
+    /**
+     * Starts the server, handling requests concurrently on the given number of threads.
+     *
+     * @param threads the number of threads handling requests, or 0 to handle them one at a time
+     * @return the port of the server
+     */
+    public int start(int threads) throws IOException {
         server = HttpServer.create(new InetSocketAddress(0), 0);
+        if (threads > 0) {
+            executor = Executors.newFixedThreadPool(threads);
+            server.setExecutor(executor);
+        }
         testContext = server.createContext("/api/testConnection");
         refreshContext = server.createContext("/api/refreshProject/");
         reportContext = server.createContext("/api/reportFiles/");
@@ -46,6 +69,22 @@ public class MockThemis {
 
     public void stop() {
         server.stop(0);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Makes all the requests wait before being handled, and some of them fail or be throttled.
+     *
+     * @param latency      the time to wait before handling each request, in milliseconds
+     * @param errorRate    the ratio of requests that fail with a 503 status
+     * @param throttleRate the ratio of requests that are throttled with a 429 status and a {@code Retry-After} header
+     */
+    public void setFaults(long latency, double errorRate, double throttleRate) {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.throttleRate = throttleRate;
     }
 
     public void setRefreshHandler(String apiKey, String path, Handler okHandler) {
@@ -56,6 +95,14 @@ public class MockThemis {
         reportContext.setHandler(new ThemisHandler(apiKey, path, okHandler));
     }
 
+    /**
+     * Makes the server report the progress of refreshes. Until then, the server responds with a 404 status, like
+     * Themis instances that do not report it.
+     */
+    public void setRefreshStatusHandler(String apiKey, String path, Handler okHandler) {
+        server.createContext("/api/refreshStatus/", new ThemisHandler(apiKey, path, okHandler));
+    }
+
     private static boolean checkApiKey(HttpExchange exchange, String apiKey) {
         return apiKey.equals(exchange.getRequestHeaders().getFirst(ThemisGlobalConfiguration.THEMIS_API_KEY));
     }
@@ -89,13 +136,16 @@ public class MockThemis {
 
     }
 
-    private static class ThemisHandler implements HttpHandler {
+    private class ThemisHandler implements HttpHandler {
 
         private final String apiKey;
         private final String path;
         private final Handler ok;
         private final Handler wrongApiKey = e -> response(403, "Wrong API key");
-        private final Handler wrongPath = e -> response(400, "KO");
+        // like older Themis instances, which reject the endpoints they do not know
+        private final Handler wrongPath = e -> response(400, "Unknown path " + e.getRequestURI().getPath());
+        private final Handler unavailable = e -> response(503, "Unavailable");
+        private final Handler throttled = e -> response(429, "Too many requests");
 
         private ThemisHandler(String apiKey, String path, Handler ok) {
             this.apiKey = apiKey;
@@ -106,7 +156,24 @@ public class MockThemis {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             String actualPath = exchange.getRequestURI().getPath();
-            if (!checkApiKey(exchange, apiKey)) {
+            double fault = ThreadLocalRandom.current().nextDouble();
+            if (latency > 0) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (fault < errorRate + throttleRate) {
+                // reads the whole request, so that the client receives the response rather than a broken pipe
+                IOUtils.copy(exchange.getRequestBody(), new NullOutputStream());
+            }
+            if (fault < errorRate) {
+                unavailable.handle(exchange);
+            } else if (fault < errorRate + throttleRate) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                throttled.handle(exchange);
+            } else if (!checkApiKey(exchange, apiKey)) {
                 wrongApiKey.handle(exchange);
             } else if (!actualPath.equals(path)) {
                 wrongPath.handle(exchange);